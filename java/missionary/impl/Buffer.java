@@ -4,8 +4,16 @@ import clojure.lang.AFn;
 import clojure.lang.IDeref;
 import clojure.lang.IFn;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 public interface Buffer {
 
+    AtomicIntegerFieldUpdater<Process> SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(Process.class, "size");
+    AtomicIntegerFieldUpdater<Process> BUSY =
+            AtomicIntegerFieldUpdater.newUpdater(Process.class, "busy");
+
     class Flow extends AFn {
         final int capacity;
         final IFn input;
@@ -18,43 +26,35 @@ public interface Buffer {
         @Override
         public Object invoke(Object n, Object t) {
             Process ps = new Process();
-            ps.busy = true;
+            ps.busy = 1;
             ps.failed = -1;
-            ps.buffer = new Object[capacity];
+            ps.capacity = capacity;
+            ps.buffer = new Object[ring(capacity)];
             ps.notifier = (IFn) n;
             ps.terminator = (IFn) t;
             ps.iterator = input.invoke(
                     new AFn() {
                         @Override
                         public Object invoke() {
-                            IFn cb;
-                            synchronized (ps) {
-                                cb = more(ps);
-                            }
+                            IFn cb = more(ps);
                             return cb == null ? null : cb.invoke();
                         }
                     },
                     new AFn() {
                         @Override
                         public Object invoke() {
-                            IFn cb;
-                            synchronized (ps) {
-                                ps.done = true;
-                                cb = more(ps);
-                            }
+                            ps.done = true;
+                            IFn cb = more(ps);
                             return cb == null ? null : cb.invoke();
                         }
                     });
-            IFn cb;
-            synchronized (ps) {
-                cb = more(ps);
-            }
+            IFn cb = more(ps);
             if (cb != null) cb.invoke();
             return ps;
         }
     }
 
-    class Process extends AFn implements IDeref {
+    class Process extends AFn implements IDeref, Chunk.Source {
 
         static {
             Util.printDefault(Process.class);
@@ -64,13 +64,15 @@ public interface Buffer {
         IFn terminator;
         Object iterator;
         Object[] buffer;
+        int capacity;
         int failed;
-        int size;
         int push;
         int pull;
-        boolean busy;
         boolean done;
 
+        volatile int size;
+        volatile int busy;
+
         @Override
         public Object invoke() {
             return ((IFn) iterator).invoke();
@@ -81,45 +83,84 @@ public interface Buffer {
             return transfer(this);
         }
 
+        @Override
+        public Object[] chunk(int n) {
+            return Buffer.chunk(this, n);
+        }
+
+    }
+
+    static int ring(int capacity) {
+        int n = Integer.highestOneBit(capacity);
+        return n == capacity ? n : n << 1;
+    }
+
+    static boolean toggle(Process ps) {
+        return (BUSY.incrementAndGet(ps) & 1) != 0;
     }
 
     static Object transfer(Process ps) {
         Object[] buffer = ps.buffer;
-        boolean f;
-        Object x;
-        IFn cb;
-        synchronized (ps) {
-            int i = ps.pull;
-            int s = ps.size;
-            int n = (i + 1) % buffer.length;
-            f = ps.failed == i;
-            x = buffer[i];
-            buffer[i] = null;
-            ps.pull = n;
-            ps.size = s - 1;
-            cb = s == buffer.length ? more(ps) : null;
-            cb = s == 1 ? cb : buffer[n] == ps ? ps.terminator : ps.notifier;
-        }
+        int i = ps.pull;
+        int n = (i + 1) & (buffer.length - 1);
+        boolean f = ps.failed == i;
+        Object x = buffer[i];
+        buffer[i] = null;
+        ps.pull = n;
+        int s = SIZE.getAndDecrement(ps);
+        IFn cb = s == ps.capacity ? more(ps) : null;
+        cb = s == 1 ? cb : buffer[n] == ps ? ps.terminator : ps.notifier;
         if (cb != null) cb.invoke();
         return f ? clojure.lang.Util.sneakyThrow((Throwable) x) : x;
     }
 
+    static Object[] chunk(Process ps, int n) {
+        Object[] buffer = ps.buffer;
+        int mask = buffer.length - 1;
+        int i = ps.pull;
+        int m = Math.min(n, ps.size);
+        int k = 0;
+        while (k < m && ps.failed != i && buffer[i] != ps) {
+            k++;
+            i = (i + 1) & mask;
+        }
+        if (k == 0) return new Object[] {transfer(ps)};
+        Object[] xs = new Object[k];
+        int j = ps.pull;
+        if (j < i) {
+            System.arraycopy(buffer, j, xs, 0, k);
+            Arrays.fill(buffer, j, i, null);
+        } else {
+            int l = buffer.length - j;
+            System.arraycopy(buffer, j, xs, 0, l);
+            System.arraycopy(buffer, 0, xs, l, i);
+            Arrays.fill(buffer, j, buffer.length, null);
+            Arrays.fill(buffer, 0, i, null);
+        }
+        ps.pull = i;
+        int s = SIZE.getAndAdd(ps, -k);
+        IFn cb = s == ps.capacity ? more(ps) : null;
+        cb = s == k ? cb : buffer[i] == ps ? ps.terminator : ps.notifier;
+        if (cb != null) cb.invoke();
+        return xs;
+    }
+
     static IFn more(Process ps) {
         Object[] buffer = ps.buffer;
         IFn cb = null;
-        for(;;) if (ps.busy = !ps.busy) {
+        while (toggle(ps)) {
             int i = ps.push;
-            int s = ps.size;
-            ps.push = (i + 1) % buffer.length;
-            cb = s == 0 ? ps.done ? ps.terminator : ps.notifier : cb;
+            ps.push = (i + 1) & (buffer.length - 1);
             if (ps.done) buffer[i] = ps; else try {
                 buffer[i] = ((IDeref) ps.iterator).deref();
             } catch (Throwable e) {
                 ps.failed = i;
                 buffer[i] = e;
             }
-            if ((ps.size = s + 1) == buffer.length) break;
-        } else break;
+            int s = SIZE.getAndIncrement(ps);
+            if (s == 0) cb = ps.done ? ps.terminator : ps.notifier;
+            if (s + 1 == ps.capacity) break;
+        }
         return cb;
     }
 
@@ -0,0 +1,20 @@
+package missionary.impl;
+
+import clojure.lang.IFn;
+import clojure.lang.Reduced;
+
+public interface Chunk {
+
+    int SIZE = 32;
+
+    // Implemented by discrete flow processes able to transfer several values at once. Called in place of deref, returns
+    // between 1 and n values, then signals like deref would have after the last one.
+    interface Source {
+        Object[] chunk(int n);
+    }
+
+    static Object reduce(IFn f, Object r, Object[] xs) {
+        for (Object x : xs) if ((r = f.invoke(r, x)) instanceof Reduced) break;
+        return r;
+    }
+}
@@ -3,7 +3,6 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
-import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static missionary.impl.Util.NOP;
@@ -18,6 +17,8 @@ public interface Dataflow {
             Util.printDefault(Port.class);
         }
 
+        final Queue waiters = new Queue();
+
         volatile Object state = null;
 
         @Override
@@ -36,45 +37,52 @@ public interface Dataflow {
         }
     }
 
+    static void transfer(Port port) {
+        Queue waiters = port.waiters;
+        Throwable error = null;
+        if (Queue.enter(waiters)) do {
+            Object s = port.state;
+            if (s != null) {
+                Object x = ((Reduced) s).deref();
+                Event w;
+                while ((w = Queue.peek(waiters)) != null) {
+                    if (Event.claim(w)) error = Event.succeed(w, x, error);
+                    Queue.pop(waiters);
+                }
+            }
+        } while (Queue.exit(waiters));
+        if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+    }
+
     static Object assign(Port port, Object x) {
         for(;;) {
             Object s = port.state;
-            if (s instanceof Reduced) return ((Reduced) s).deref();
-            else if (STATE.compareAndSet(port, s, new Reduced(x))) {
-                if (s != null) {
-                    Iterator it = RT.iter(s);
-                    do ((Event) it.next()).success.invoke(x);
-                    while (it.hasNext());
-                }
+            if (s != null) return ((Reduced) s).deref();
+            else if (STATE.compareAndSet(port, null, new Reduced(x))) {
+                transfer(port);
                 return x;
             }
         }
     }
 
     static IFn deref(Port port, IFn success, IFn failure) {
-        for(;;) {
-            Object s = port.state;
-            if (s instanceof Reduced) {
-                success.invoke(((Reduced) s).deref());
-                return NOP;
-            } else {
-                Event e = new Event(port, success, failure);
-                IPersistentSet set = (s == null) ? PersistentHashSet.EMPTY : (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.cons(e))) return e;
-            }
+        Object s = port.state;
+        if (s != null) {
+            success.invoke(((Reduced) s).deref());
+            return NOP;
+        } else {
+            Event e = new Event(port, success, failure);
+            Queue.push(port.waiters, e);
+            transfer(port);
+            return e;
         }
     }
 
     static void cancelDeref(Port port, Event e) {
-        for(;;) {
-            Object s = port.state;
-            if (!(s instanceof IPersistentSet)) break;
-            IPersistentSet set = (IPersistentSet) s;
-            if (!(set.contains(e))) break;
-            if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                e.failure.invoke(new Cancelled("Dataflow variable derefence cancelled."));
-                break;
-            }
+        if (Event.cancel(e)) {
+            Queue.discard(port.waiters);
+            Event.fail(e, new Cancelled("Dataflow variable derefence cancelled."));
+            transfer(port);
         }
     }
 
@@ -2,6 +2,7 @@ package missionary.impl;
 
 import clojure.lang.*;
 
+import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public interface Eduction {
@@ -21,7 +22,22 @@ public interface Eduction {
         }
     };
 
-    final class Process extends AFn implements IDeref {
+    final class Flow extends AFn {
+        final IFn xform;
+        final IFn input;
+
+        Flow(IFn x, IFn f) {
+            xform = x;
+            input = f;
+        }
+
+        @Override
+        public Object invoke(Object n, Object t) {
+            return Eduction.run(xform, input, (IFn) n, (IFn) t);
+        }
+    }
+
+    final class Process extends AFn implements IDeref, Chunk.Source {
 
         static {
             Util.printDefault(Process.class);
@@ -49,6 +65,11 @@ public interface Eduction {
         public Object deref() {
             return transfer(this);
         }
+
+        @Override
+        public Object[] chunk(int n) {
+            return Eduction.chunk(this, n);
+        }
     }
 
     static void cancel(Process ps) {
@@ -64,13 +85,41 @@ public interface Eduction {
         return f ? clojure.lang.Util.sneakyThrow((Throwable) x) : x;
     }
 
-    static void push(Process ps, Object x) {
-        if (ps.length == ps.buffer.length) {
-            Object[] bigger = new Object[ps.length << 1];
-            System.arraycopy(ps.buffer, 0, bigger, 0, ps.length);
-            ps.buffer = bigger;
+    static Object[] chunk(Process ps, int n) {
+        int o = ps.offset;
+        if (ps.error == o) return new Object[] {transfer(ps)};
+        int e = o < ps.error ? ps.error : ps.length;
+        if (n < e - o) e = o + n;
+        Object[] xs = ps.buffer;
+        if (o == 0 && e == xs.length) ps.buffer = new Object[e];
+        else {
+            xs = Arrays.copyOfRange(xs, o, e);
+            Arrays.fill(ps.buffer, o, e, null);
         }
-        ps.buffer[ps.length++] = x;
+        ps.offset = e;
+        if (ps.offset != ps.length) ps.notifier.invoke();
+        else if (0 == PRESSURE.decrementAndGet(ps)) pull(ps);
+        return xs;
+    }
+
+    static Object feed(Process ps) {
+        Object it = ps.iterator;
+        return it instanceof Chunk.Source
+                ? Chunk.reduce(ps.reducer, ps, ((Chunk.Source) it).chunk(Chunk.SIZE))
+                : ps.reducer.invoke(ps, ((IDeref) it).deref());
+    }
+
+    static void push(Process ps, Object x) {
+        Object[] buffer = ps.buffer;
+        if (ps.length == buffer.length) ps.buffer = buffer = Arrays.copyOf(buffer, ps.length << 1);
+        buffer[ps.length++] = x;
+    }
+
+    static void reset(Process ps) {
+        int n = ps.buffer.length;
+        if (Chunk.SIZE < n && ps.length < n >> 2) ps.buffer = new Object[n >> 1];
+        ps.offset = 0;
+        ps.length = 0;
     }
 
     static void pull(Process ps) {
@@ -78,8 +127,7 @@ public interface Eduction {
             ps.terminator.invoke();
             return;
         } else {
-            ps.offset = 0;
-            ps.length = 0;
+            reset(ps);
             try {
                 ps.reducer.invoke(ps);
             } catch (Throwable e) {
@@ -97,10 +145,9 @@ public interface Eduction {
             } catch (Throwable _) {}
             if (0 != PRESSURE.decrementAndGet(ps)) return;
         } else {
-            ps.offset = 0;
-            ps.length = 0;
+            reset(ps);
             try {
-                if (ps.reducer.invoke(ps, ((IDeref) ps.iterator).deref()) instanceof Reduced) {
+                if (feed(ps) instanceof Reduced) {
                     ps.reducer.invoke(ps);
                     ps.reducer = null;
                     cancel(ps);
@@ -145,4 +192,7 @@ public interface Eduction {
         return ps;
     }
 
+    static Flow flow(IFn x, IFn f) {
+        return new Flow(x, f);
+    }
 }
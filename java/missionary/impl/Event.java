@@ -3,14 +3,27 @@ package missionary.impl;
 import clojure.lang.AFn;
 import clojure.lang.IFn;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 final class Event extends AFn {
     interface Emitter {
         void cancel(Event e);
     }
 
+    static final AtomicIntegerFieldUpdater<Event> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Event.class, "state");
+
+    static final int LIVE = 0;
+    static final int BUSY = 1;
+    static final int DONE = 2;
+
     Emitter emitter;
     IFn success;
     IFn failure;
+    Object value;
+
+    volatile int state;
+    volatile Event next;
 
     Event(Emitter e, IFn s, IFn f) {
         emitter = e;
@@ -24,4 +37,43 @@ final class Event extends AFn {
         return null;
     }
 
+    static boolean claim(Event e) {
+        return e.state == LIVE && STATE.compareAndSet(e, LIVE, DONE);
+    }
+
+    static boolean cancel(Event e) {
+        for(;;) {
+            int s = e.state;
+            if (s == DONE) return false;
+            if (s == LIVE) {
+                if (STATE.compareAndSet(e, LIVE, DONE)) return true;
+            } else Thread.yield();
+        }
+    }
+
+    static Throwable deliver(IFn s, Object x, Throwable error) {
+        try {
+            s.invoke(x);
+        } catch (Throwable t) {
+            if (error == null) error = t;
+        }
+        return error;
+    }
+
+    static Throwable succeed(Event e, Object x, Throwable error) {
+        IFn s = e.success;
+        e.value = null;
+        e.success = null;
+        e.failure = null;
+        return deliver(s, x, error);
+    }
+
+    static void fail(Event e, Object x) {
+        IFn f = e.failure;
+        e.value = null;
+        e.success = null;
+        e.failure = null;
+        f.invoke(x);
+    }
+
 }
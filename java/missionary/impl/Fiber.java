@@ -3,7 +3,7 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
 
 public interface Fiber {
     Object park(IFn t);
@@ -15,38 +15,19 @@ public interface Fiber {
     Fiber thread = new Fiber() {
         @Override
         public Object park(IFn t) {
-            return new CountDownLatch(1) {
-                boolean failed;
-                Object result;
-                {
-                    IFn cancel = (IFn) t.invoke(
-                            new AFn() {
-                                @Override
-                                public Object invoke(Object x) {
-                                    failed = false;
-                                    result = x;
-                                    countDown();
-                                    return null;
-                                }
-                            },
-                            new AFn() {
-                                @Override
-                                public Object invoke(Object x) {
-                                    failed = true;
-                                    result = x;
-                                    countDown();
-                                    return null;
-                                }
-                            });
-                    try {await();}
-                    catch (InterruptedException _) {
-                        cancel.invoke();
-                        try {await();} catch (InterruptedException __) {}
-                        Thread.currentThread().interrupt();
-                    }
-                    if (failed) clojure.lang.Util.sneakyThrow((Throwable) result);
+            Blocker b = new Blocker();
+            IFn cancel = (IFn) t.invoke(b, b.failure);
+            boolean interrupted = false;
+            while (b.state == PENDING) {
+                LockSupport.park(b);
+                if (Thread.interrupted() && !interrupted) {
+                    interrupted = true;
+                    cancel.invoke();
                 }
-            }.result;
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            if (b.state == FAILED) clojure.lang.Util.sneakyThrow((Throwable) b.result);
+            return b.result;
         }
 
         @Override
@@ -71,6 +52,35 @@ public interface Fiber {
         }
     };
 
+    int PENDING = 0;
+    int SUCCEEDED = 1;
+    int FAILED = 2;
+
+    final class Blocker extends AFn {
+        final Thread thread = Thread.currentThread();
+        final IFn failure = new AFn() {
+            @Override
+            public Object invoke(Object x) {
+                return complete(Blocker.this, FAILED, x);
+            }
+        };
+
+        volatile int state = PENDING;
+        Object result;
+
+        @Override
+        public Object invoke(Object x) {
+            return complete(this, SUCCEEDED, x);
+        }
+    }
+
+    static Object complete(Blocker b, int state, Object x) {
+        b.result = x;
+        b.state = state;
+        if (b.thread != Thread.currentThread()) LockSupport.unpark(b.thread);
+        return null;
+    }
+
     ThreadLocal<Fiber> fiber = ThreadLocal.withInitial(() -> thread);
 
     static Object current() {
@@ -5,6 +5,60 @@ import missionary.Cancelled;
 
 public interface GroupBy {
 
+    Object DROP = new Object();
+    int MAXIMUM = 1 << 30;
+
+    interface Keys {
+        int hash(Object k);
+        boolean equiv(Object x, Object y);
+    }
+
+    Keys HASHEQ = new Keys() {
+        @Override
+        public int hash(Object k) {
+            return clojure.lang.Util.hasheq(k);
+        }
+
+        @Override
+        public boolean equiv(Object x, Object y) {
+            return clojure.lang.Util.equiv(x, y);
+        }
+    };
+
+    Keys LONG = new Keys() {
+        @Override
+        public int hash(Object k) {
+            if (k instanceof Long || k instanceof Integer || k instanceof Short || k instanceof Byte)
+                return mix(((Number) k).longValue());
+            throw new ClassCastException("Non-integral key : " + k);
+        }
+
+        @Override
+        public boolean equiv(Object x, Object y) {
+            return ((Number) x).longValue() == ((Number) y).longValue();
+        }
+    };
+
+    final class Custom implements Keys {
+        final IFn hash;
+        final IFn equiv;
+
+        Custom(IFn h, IFn e) {
+            hash = h;
+            equiv = e;
+        }
+
+        @Override
+        public int hash(Object k) {
+            return hash == null ? clojure.lang.Util.hasheq(k) : mix(((Number) hash.invoke(k)).intValue());
+        }
+
+        @Override
+        public boolean equiv(Object x, Object y) {
+            return equiv == null ? clojure.lang.Util.equiv(x, y) : RT.booleanCast(equiv.invoke(x, y));
+        }
+    }
+
     class Process extends AFn implements IDeref {
 
         static {
@@ -14,11 +68,18 @@ public interface GroupBy {
         IFn keyfn;
         IFn notifier;
         IFn terminator;
+        Keys keys;
         Object key;
         Object value;
         Object input;
         Group[] table;
+        Group target;
+        Object overflow;
+        int capacity;
+        float factor;
+        int limit;
         int load;
+        int hash;
         boolean live;
         boolean busy;
         boolean done;
@@ -48,6 +109,10 @@ public interface GroupBy {
 
         Process process;
         Object key;
+        Object[] queue;
+        int hash;
+        int head;
+        int size;
         IFn notifier;
         IFn terminator;
 
@@ -74,32 +139,94 @@ public interface GroupBy {
         return (i + 1) & m;
     }
 
+    static int mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return (int) x;
+    }
+
+    static int size(int capacity, float factor) {
+        int n = 8;
+        while (n < MAXIMUM && (int) (n * factor) < capacity) n <<= 1;
+        return n;
+    }
+
+    static void resize(Process p, int n) {
+        p.table = new Group[n];
+        p.limit = Math.min(n - 1, (int) (n * p.factor));
+    }
+
+    static void insert(Group[] table, Group g) {
+        int m = table.length - 1;
+        int i = g.hash & m;
+        int d = 0;
+        for(;;) {
+            Group h = table[i];
+            if (h == null) {
+                table[i] = g;
+                return;
+            }
+            int e = (i - h.hash) & m;
+            if (e < d) {
+                table[i] = g;
+                g = h;
+                d = e;
+            }
+            i = step(i, m);
+            d++;
+        }
+    }
+
+    static Group find(Process p, Object k, int hash) {
+        Group[] table = p.table;
+        int m = table.length - 1;
+        int i = hash & m;
+        int d = 0;
+        for(;;) {
+            Group h = table[i];
+            if (h == null || ((i - h.hash) & m) < d) return null;
+            if (h.hash == hash && p.keys.equiv(h.key, k)) return h;
+            i = step(i, m);
+            d++;
+        }
+    }
+
+    static void remove(Group[] table, Group g) {
+        int m = table.length - 1;
+        int i = g.hash & m;
+        while (table[i] != g) i = step(i, m);
+        for(;;) {
+            int j = step(i, m);
+            Group h = table[j];
+            if (h == null || ((j - h.hash) & m) == 0) {
+                table[i] = null;
+                return;
+            }
+            table[i] = h;
+            i = j;
+        }
+    }
+
     static Group group(Process p, IFn n, IFn t) {
         Group g = new Group();
         g.process = p;
         g.notifier = n;
         g.terminator = t;
         synchronized (p) {
-            Group[] table = p.table;
             Object k = g.key = p.key;
             if (k != p) {
                 p.key = p;
-                int s = table.length;
-                int m = s - 1;
-                int i = clojure.lang.Util.hasheq(k) & m;
-                while (table[i] != null) i = step(i, m);
-                table[i] = g;
-                int ss = s << 1;
-                if (ss <= ++p.load * 3) {
-                    int mm = ss - 1;
-                    Group[] larger = p.table = new Group[ss];
-                    Group h;
-                    for (i = 0; i < s; i++) if ((h = table[i]) != null) {
-                        int j = clojure.lang.Util.hasheq(h.key) & mm;
-                        while (larger[j] != null) j = step(j, mm);
-                        larger[j] = h;
-                    }
+                g.hash = p.hash;
+                if (p.capacity != 0) g.queue = new Object[p.capacity];
+                if (p.limit < ++p.load && p.table.length < MAXIMUM) {
+                    Group[] table = p.table;
+                    resize(p, table.length << 1);
+                    for (Group h : table) if (h != null) insert(p.table, h);
                 }
+                insert(p.table, g);
             }
         }
         n.invoke();
@@ -111,69 +238,109 @@ public interface GroupBy {
         IFn cb = null;
         synchronized (p) {
             Object k = g.key;
-            if (p.live) if (k != p) {
+            if (k != p) if (p.live || g.size != 0) {
                 g.key = p;
-                Group[] table = p.table;
-                int m = table.length - 1;
-                int i = clojure.lang.Util.hasheq(k) & m;
-                while (table[i] != g) i = step(i, m);
-                table[i] = null;
-                p.load--;
-                Group h;
-                while ((h = table[i = step(i, m)]) != null) {
-                    int j = clojure.lang.Util.hasheq(h.key) & m;
-                    if (i != j) {
-                        table[i] = null;
-                        while (table[j] != null) j = step(j, m);
-                        table[j] = h;
-                    }
+                if (p.table != null) {
+                    remove(p.table, g);
+                    p.load--;
+                    boolean pending = p.key != p && p.hash == g.hash && p.keys.equiv(p.key, k);
+                    cb = pending ? p.notifier : g.size != 0 ? null : g.notifier;
+                    if (p.target == g) p.target = null;
+                }
+                if (g.queue != null) {
+                    java.util.Arrays.fill(g.queue, null);
+                    g.size = 0;
                 }
-                cb = clojure.lang.Util.equiv(p.key, k) ? p.notifier : g.notifier;
             }
         }
         if (cb != null) cb.invoke();
     }
 
+    static void offer(Group g, Object x) {
+        Object[] q = g.queue;
+        q[(g.head + g.size++) % q.length] = x;
+    }
+
+    static Object poll(Group g) {
+        Object[] q = g.queue;
+        Object x = q[g.head];
+        q[g.head] = null;
+        g.head = (g.head + 1) % q.length;
+        g.size--;
+        return x;
+    }
+
+    static void finish(Group[] table) {
+        for (int i = 0; i < table.length; i++) {
+            Group g = table[i];
+            if (g != null && g.size != 0) table[i] = null;
+        }
+    }
+
+    static boolean dispatch(Process p, Group h) {
+        Object[] q = h.queue;
+        if (h.size == q.length) {
+            Object o = p.overflow;
+            if (o == null) {
+                p.target = h;
+                return false;
+            } else if (o == DROP) {
+                poll(h);
+                offer(h, p.value);
+            } else {
+                int i = (h.head + h.size - 1) % q.length;
+                q[i] = ((IFn) o).invoke(q[i], p.value);
+            }
+        } else offer(h, p.value);
+        p.value = p;
+        p.key = p;
+        return true;
+    }
+
     static void transfer(Process p) {
-        IFn cb;
-        Group[] table;
-        synchronized (p) {
-            table = p.table;
-            for(;;) if (p.busy = !p.busy) if (p.done) {
-                p.live = false;
-                p.table = null;
-                cb = p.terminator;
-                break;
-            } else if (p.value == p) try {
-                Object k = p.key = p.keyfn.invoke(p.value = ((IDeref) p.input).deref());
-                int m = table.length - 1;
-                int i = clojure.lang.Util.hasheq(k) & m;
-                for(;;) {
-                    Group h = table[i];
-                    if (h == null) {
-                        cb = p.notifier;
-                        break;
-                    } else if (clojure.lang.Util.equiv(h.key, k)) {
-                        cb = h.notifier;
-                        break;
-                    } else i = step(i, m);
+        boolean more;
+        do {
+            IFn cb;
+            Group[] table;
+            more = false;
+            synchronized (p) {
+                table = p.table;
+                for(;;) if (p.busy = !p.busy) if (p.done) {
+                    p.live = false;
+                    p.table = null;
+                    if (table != null) finish(table);
+                    cb = p.terminator;
+                    break;
+                } else if (p.value == p) try {
+                    Object k = p.key = p.keyfn.invoke(p.value = ((IDeref) p.input).deref());
+                    Group h = find(p, k, p.hash = p.keys.hash(k));
+                    if (h == null) cb = p.notifier;
+                    else if (h.queue == null) cb = h.notifier;
+                    else {
+                        int s = h.size;
+                        if (!dispatch(p, h)) cb = null;
+                        else if (s == 0) more = (cb = h.notifier) != null;
+                        else continue;
+                    }
+                    table = null;
+                    break;
+                } catch (Throwable e) {
+                    p.key = p;
+                    p.value = e;
+                    p.table = null;
+                    finish(table);
+                    kill(p);
+                    cb = p.notifier;
+                    break;
+                } else Util.discard(p.input); else {
+                    cb = null;
+                    table = null;
+                    break;
                 }
-                table = null;
-                break;
-            } catch (Throwable e) {
-                p.value = e;
-                p.table = null;
-                kill(p);
-                cb = p.notifier;
-                break;
-            } else Util.discard(p.input); else {
-                cb = null;
-                table = null;
-                break;
             }
-        }
-        if (table != null) for (Group g : table) if (g != null) g.terminator.invoke();
-        if (cb != null) cb.invoke();
+            if (table != null) for (Group g : table) if (g != null) g.terminator.invoke();
+            if (cb != null) cb.invoke();
+        } while (more);
     }
 
     static Object sample(Process p) {
@@ -186,6 +353,7 @@ public interface GroupBy {
 
     static Object consume(Group g) {
         Process p = g.process;
+        if (g.queue != null) return dequeue(g);
         if (p == g.key) {
             g.terminator.invoke();
             return clojure.lang.Util.sneakyThrow(new Cancelled("Group consumer cancelled."));
@@ -198,14 +366,63 @@ public interface GroupBy {
         }
     }
 
+    static Object dequeue(Group g) {
+        Process p = g.process;
+        IFn cb;
+        Object v;
+        boolean flip;
+        synchronized (p) {
+            if (p == g.key) {
+                cb = null;
+                v = p;
+                flip = false;
+            } else if (g.size == 0) {
+                v = p.value;
+                p.value = p;
+                p.key = p;
+                cb = null;
+                flip = true;
+            } else {
+                v = poll(g);
+                if (flip = p.target == g) {
+                    p.target = null;
+                    offer(g, p.value);
+                    p.value = p;
+                    p.key = p;
+                }
+                cb = g.size != 0 ? g.notifier : p.table == null ? g.terminator : null;
+            }
+        }
+        if (v == p) {
+            g.terminator.invoke();
+            return clojure.lang.Util.sneakyThrow(new Cancelled("Group consumer cancelled."));
+        }
+        if (cb != null) cb.invoke();
+        if (flip) transfer(p);
+        return v;
+    }
+
+    static Keys custom(IFn hash, IFn equiv) {
+        return hash == null && equiv == null ? HASHEQ : new Custom(hash, equiv);
+    }
+
     static Process run(IFn k, IFn f, IFn n, IFn t) {
+        return run(HASHEQ, 0, 0.75f, 0, null, k, f, n, t);
+    }
+
+    static Process run(Keys keys, Number capacity, Number factor, Number buffer, Object overflow,
+                       IFn k, IFn f, IFn n, IFn t) {
         Process p = new Process();
         p.keyfn = k;
         p.notifier = n;
         p.terminator = t;
+        p.keys = keys;
+        p.capacity = buffer.intValue();
+        p.overflow = overflow;
+        p.factor = factor.floatValue();
         p.key = p.value = p;
         p.live = p.busy = true;
-        p.table = new Group[8];
+        resize(p, size(capacity.intValue(), p.factor));
         p.input = f.invoke(new AFn() {
             @Override
             public Object invoke() {
@@ -4,12 +4,16 @@ import clojure.lang.AFn;
 import clojure.lang.IDeref;
 import clojure.lang.IFn;
 import clojure.lang.RT;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public interface Latest {
 
-    AtomicReferenceFieldUpdater<Process, Object> SYNC = AtomicReferenceFieldUpdater.newUpdater(Process.class, Object.class, "sync");
+    AtomicIntegerFieldUpdater<Process> SYNC = AtomicIntegerFieldUpdater.newUpdater(Process.class, "sync");
+
+    int NIL = -1;
+    int IDLE = -2;
 
     class Process extends AFn implements IDeref {
 
@@ -24,11 +28,11 @@ public interface Latest {
         Object owner;
         Object[] args;
         Object[] inputs;
-        Object[] children;
-        Object[] siblings;
+        int[] children;
+        int[] siblings;
         int pending;
-        Integer head;
-        volatile Object sync;
+        int head = NIL;
+        volatile int sync = NIL;
 
         @Override
         public Object invoke() {
@@ -43,62 +47,71 @@ public interface Latest {
 
     }
 
-    PairingHeap.Impl IMPL = PairingHeap.impl(new AFn() {
-        @Override
-        public Object invoke(Object ps, Object i, Object j) {
-            return (Integer) i < (Integer) j;
-        }
-    }, new AFn() {
-        @Override
-        public Object invoke(Object ps, Object x) {
-            return ((Process) ps).children[(Integer) x];
-        }
-    }, new AFn() {
-        @Override
-        public Object invoke(Object ps, Object x, Object y) {
-            ((Process) ps).children[(Integer) x] = y;
-            return null;
-        }
-    }, new AFn() {
-        @Override
-        public Object invoke(Object ps, Object x) {
-            return ((Process) ps).siblings[(Integer) x];
-        }
-    }, new AFn() {
-        @Override
-        public Object invoke(Object ps, Object x, Object y) {
-            ((Process) ps).siblings[(Integer) x] = y;
-            return null;
+    static int meld(Process ps, int x, int y) {
+        int[] children = ps.children;
+        int[] siblings = ps.siblings;
+        if (x < y) {
+            siblings[y] = children[x];
+            children[x] = y;
+            return x;
+        } else {
+            siblings[x] = children[y];
+            children[y] = x;
+            return y;
         }
-    });
+    }
 
-    Object IDLE = new Object();
+    static int dmin(Process ps, int x) {
+        int[] children = ps.children;
+        int[] siblings = ps.siblings;
+        int head = children[x];
+        if (head == NIL) return NIL; else {
+            children[x] = NIL;
+            int heap = NIL;
+            int prev = NIL;
+            for(;;) {
+                int next = siblings[head];
+                if (prev == NIL) if (next == NIL) return heap == NIL ? head : meld(ps, heap, head);
+                else {
+                    prev = head;
+                    head = next;
+                } else {
+                    head = meld(ps, prev, head);
+                    heap = heap == NIL ? head : meld(ps, heap, head);
+                    if (next == NIL) return heap; else {
+                        prev = NIL;
+                        head = next;
+                    }
+                }
+            }
+        }
+    }
 
-    static boolean terminated(Process ps, Integer i) {
+    static boolean terminated(Process ps, int i) {
         return ps.children[i] == IDLE;
     }
 
-    static void event(Process ps, Integer i) {
+    static void event(Process ps, int i) {
         ps.pending -= 1;
-        ps.siblings[i] = null;
+        ps.siblings[i] = NIL;
         if (!terminated(ps, i)) {
-            Object h = ps.head;
-            ps.head = h == null ? i : (Integer) PairingHeap.meld(IMPL, ps, h, i);
+            int h = ps.head;
+            ps.head = h == NIL ? i : meld(ps, h, i);
         }
     }
 
-    static void consume(Process ps, Integer i) {
+    static void consume(Process ps, int i) {
         for(;;) {
-            Object s = ps.siblings[i];
+            int s = ps.siblings[i];
             event(ps, i);
-            if (s == null) break; else i = (Integer) s;
+            if (s == NIL) break; else i = s;
         }
     }
 
     static int dequeue(Process ps) {
         ps.pending++;
-        Integer h = ps.head;
-        ps.head = (Integer) PairingHeap.dmin(IMPL, ps, h);
+        int h = ps.head;
+        ps.head = dmin(ps, h);
         ps.siblings[h] = IDLE;
         return h;
     }
@@ -110,14 +123,14 @@ public interface Latest {
     static void ready(Process ps) {
         IFn step = ps.step;
         IFn done = ps.done;
-        for(;;) if (ps.head == null) if (0 == ps.pending) {
+        for(;;) if (ps.head == NIL) if (0 == ps.pending) {
             done.invoke();
             break;
         } else {
-            if (SYNC.compareAndSet(ps, null, IDLE)) break; else for(;;) {
-                Object s = SYNC.get(ps);
-                if (SYNC.compareAndSet(ps, s, null)) {
-                    consume(ps, (Integer) s);
+            if (SYNC.compareAndSet(ps, NIL, IDLE)) break; else for(;;) {
+                int s = SYNC.get(ps);
+                if (SYNC.compareAndSet(ps, s, NIL)) {
+                    consume(ps, s);
                     break;
                 }
             }
@@ -140,17 +153,17 @@ public interface Latest {
         try {
             int p = ps.pending;
             if (0 < p) {
-                Object s = SYNC.get(ps);
-                if (s != null) {
-                    while (!SYNC.compareAndSet(ps, s, null))
+                int s = SYNC.get(ps);
+                if (s != NIL) {
+                    while (!SYNC.compareAndSet(ps, s, NIL))
                         s = SYNC.get(ps);
-                    consume(ps, (Integer) s);
+                    consume(ps, s);
                 }
             }
             Object x = ps.value;
             Object[] args = ps.args;
             Object[] inputs = ps.inputs;
-            while (ps.head != null) {
+            while (ps.head != NIL) {
                 int i = dequeue(ps);
                 Object prev = args[i];
                 Object curr = args[i] = ((IDeref) inputs[i]).deref();
@@ -167,11 +180,11 @@ public interface Latest {
         }
     }
 
-    static void step(Process ps, Integer i) {
+    static void step(Process ps, int i) {
         if (ps.owner == Thread.currentThread()) event(ps, i); else for(;;) {
-            Object s = SYNC.get(ps);
+            int s = SYNC.get(ps);
             if (s == IDLE) {
-                if (SYNC.compareAndSet(ps, IDLE, null)) {
+                if (SYNC.compareAndSet(ps, IDLE, NIL)) {
                     event(ps, i);
                     ready(ps);
                     break;
@@ -183,7 +196,7 @@ public interface Latest {
         }
     }
 
-    static boolean spawn(Process ps, Integer i, IFn flow) {
+    static boolean spawn(Process ps, int i, IFn flow) {
         int p = ps.pending;
         ps.args[i] = ps;
         ps.siblings[i] = IDLE;
@@ -214,8 +227,9 @@ public interface Latest {
         ps.pending = arity;
         ps.args = new Object[arity];
         ps.inputs = new Object[arity];
-        ps.children = new Object[arity];
-        ps.siblings = new Object[arity];
+        ps.children = new int[arity];
+        ps.siblings = new int[arity];
+        Arrays.fill(ps.children, NIL);
         ps.owner = Thread.currentThread();
         int initialized = 0;
         for (int i = 0; i < arity; i++) initialized = spawn(ps, i, (IFn) it.next()) ? initialized : initialized + 1;
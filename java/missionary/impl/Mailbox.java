@@ -3,23 +3,40 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static missionary.impl.Util.NOP;
 
 public interface Mailbox {
 
-    AtomicReferenceFieldUpdater<Port, Object> STATE =
-            AtomicReferenceFieldUpdater.newUpdater(Port.class, Object.class, "state");
+    AtomicIntegerFieldUpdater<Port> SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(Port.class, "size");
 
     final class Port extends AFn implements Event.Emitter {
 
-        volatile Object state = null;
+        final Queue messages = new Queue();
+        final Queue readers = new Queue();
+        final Queue writers;
+        final int capacity;
+
+        volatile int size;
+
+        Port() {
+            writers = null;
+            capacity = Integer.MAX_VALUE;
+        }
+
+        Port(int capacity) {
+            this.writers = new Queue();
+            this.capacity = capacity;
+        }
 
         @Override
         public Object invoke(Object x) {
-            post(this, x);
-            return null;
+            if (writers == null) {
+                post(this, x);
+                return null;
+            } else return new Post(this, x);
         }
 
         @Override
@@ -32,55 +49,170 @@ public interface Mailbox {
             cancelFetch(this, e);
         }
     }
-    static void post(Port port, Object x) {
-        for(;;) {
-            Object s = port.state;
-            if (s instanceof IPersistentSet) {
-                Event e = (Event) RT.iter(s).next();
-                IPersistentSet set = (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                    e.success.invoke(x);
-                    break;
-                }
-            } else if (STATE.compareAndSet(port, s, s == null ?
-                    PersistentVector.create(x) : ((IPersistentVector) s).cons(x))) break;
+
+    final class Post extends AFn implements Event.Emitter {
+        static {
+            Util.printDefault(Post.class);
+        }
+
+        final Port port;
+        final Object value;
+
+        Post(Port p, Object x) {
+            port = p;
+            value = x;
+        }
+
+        @Override
+        public Object invoke(Object s, Object f) {
+            return give(this, (IFn) s, (IFn) f);
+        }
+
+        @Override
+        public void cancel(Event e) {
+            cancelPost(this, e);
         }
     }
 
-    static Object fetch(Port port, IFn success, IFn failure) {
+    static boolean reserve(Port port) {
         for(;;) {
-            Object s = port.state;
-            if (s instanceof IPersistentVector) {
-                IPersistentVector v = (IPersistentVector) s;
-                int n = v.count();
-                if (STATE.compareAndSet(port, s, n == 1 ? null :
-                        new APersistentVector.SubVector(null, v, 1, n))) {
-                    success.invoke(v.nth(0));
-                    return NOP;
+            int s = port.size;
+            if (port.capacity <= s) return false;
+            if (SIZE.compareAndSet(port, s, s + 1)) return true;
+        }
+    }
+
+    static void enqueue(Port port, Object x) {
+        Event m = new Event(null, null, null);
+        m.value = x;
+        Queue.push(port.messages, m);
+    }
+
+    static void transfer(Port port) {
+        Queue readers = port.readers;
+        Queue writers = port.writers;
+        Throwable error = null;
+        if (Queue.enter(readers)) do {
+            boolean more;
+            do {
+                more = false;
+                for(;;) {
+                    Event r = Queue.peek(readers);
+                    if (r == null) break;
+                    Event m = Queue.peek(port.messages);
+                    if (m == null) break;
+                    if (Event.claim(r)) {
+                        Object x;
+                        int k = 1;
+                        if (r.value == null) {
+                            Queue.pop(port.messages);
+                            x = m.value;
+                            m.value = null;
+                        } else {
+                            int n = (Integer) r.value;
+                            ITransientCollection c = PersistentVector.EMPTY.asTransient();
+                            m = Queue.pop(port.messages);
+                            c = c.conj(m.value);
+                            m.value = null;
+                            while (k < n && Queue.peek(port.messages) != null) {
+                                m = Queue.pop(port.messages);
+                                c = c.conj(m.value);
+                                m.value = null;
+                                k++;
+                            }
+                            x = c.persistent();
+                        }
+                        if (writers != null) SIZE.addAndGet(port, -k);
+                        error = Event.succeed(r, x, error);
+                    }
                 }
-            } else {
-                Event e = new Event(port, success, failure);
-                IPersistentSet set = (s == null) ? PersistentHashSet.EMPTY : (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.cons(e))) return e;
-            }
+                if (writers != null) {
+                    for(;;) {
+                        Event w = Queue.peek(writers);
+                        if (w == null) break;
+                        int s = port.size;
+                        if (port.capacity <= s) break;
+                        if (Event.STATE.compareAndSet(w, Event.LIVE, Event.BUSY)) {
+                            if (SIZE.compareAndSet(port, s, s + 1)) {
+                                w.state = Event.DONE;
+                                Queue.pop(writers);
+                                enqueue(port, w.value);
+                                error = Event.succeed(w, null, error);
+                                more = true;
+                            } else w.state = Event.LIVE;
+                        }
+                    }
+                    Queue.tidy(writers);
+                }
+            } while (more);
+        } while (Queue.exit(readers));
+        if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+    }
+
+    static void post(Port port, Object x) {
+        enqueue(port, x);
+        transfer(port);
+    }
+
+    static boolean offer(Port port, Object x) {
+        Queue writers = port.writers;
+        if (writers != null && !(Queue.idle(writers) && reserve(port))) return false;
+        post(port, x);
+        return true;
+    }
+
+    static Object give(Post p, IFn success, IFn failure) {
+        Port port = p.port;
+        if (Queue.idle(port.writers) && reserve(port)) {
+            post(port, p.value);
+            success.invoke(null);
+            return NOP;
+        } else {
+            Event e = new Event(p, success, failure);
+            e.value = p.value;
+            Queue.push(port.writers, e);
+            transfer(port);
+            return e;
         }
     }
 
+    static Object fetch(Port port, IFn success, IFn failure) {
+        Event e = new Event(port, success, failure);
+        Queue.push(port.readers, e);
+        transfer(port);
+        return e;
+    }
+
+    static Object drain(Port port, Number n, IFn success, IFn failure) {
+        Event e = new Event(port, success, failure);
+        e.value = (int) Math.min(Integer.MAX_VALUE, n.doubleValue());
+        Queue.push(port.readers, e);
+        transfer(port);
+        return e;
+    }
+
     static void cancelFetch(Port port, Event e) {
-        for(;;) {
-            Object s = port.state;
-            if (!(s instanceof IPersistentSet)) break;
-            IPersistentSet set = (IPersistentSet) s;
-            if (!(set.contains(e))) break;
-            if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                e.failure.invoke(new Cancelled("Mailbox fetch cancelled."));
-                break;
-            }
+        if (Event.cancel(e)) {
+            Queue.discard(port.readers);
+            Event.fail(e, new Cancelled("Mailbox fetch cancelled."));
+            transfer(port);
+        }
+    }
+
+    static void cancelPost(Post p, Event e) {
+        Port port = p.port;
+        if (Event.cancel(e)) {
+            Queue.discard(port.writers);
+            Event.fail(e, new Cancelled("Mailbox post cancelled."));
+            transfer(port);
         }
     }
 
     static Port make() {
         return new Port();
     }
-}
 
+    static Port make(int capacity) {
+        return new Port(capacity);
+    }
+}
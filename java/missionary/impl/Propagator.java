@@ -5,36 +5,73 @@ import clojure.lang.IDeref;
 import clojure.lang.IFn;
 import missionary.Cancelled;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 public interface Propagator {
 
-    static boolean lt(int[] x, int[] y) {
-        int xl = x.length;
-        int yl = y.length;
-        int ml = Math.min(xl, yl);
-        for(int i = 0; i < ml; i++) {
-            int xi = x[i];
-            int yi = y[i];
-            if (xi != yi) return xi < yi;
+    static boolean lt(Publisher x, Publisher y) {
+        long kx = x.key;
+        long ky = y.key;
+        if ((kx | ky) >= 0) return kx < ky;
+        Publisher a = x;
+        Publisher b = y;
+        for(int d = x.depth; d > y.depth; d--) a = a.owner;
+        for(int d = y.depth; d > x.depth; d--) b = b.owner;
+        if (a == b) return x.depth > y.depth;
+        while (a.owner != b.owner) {
+            a = a.owner;
+            b = b.owner;
         }
-        return xl > yl;
+        return a.index < b.index;
+    }
+
+    static long key(Publisher owner, long n, int bits) {
+        long k = owner.key;
+        if (k < 0 || bits > 63) return -1;
+        int l = (bits - owner.bits) >> 1;
+        int shift = 63 - bits;
+        long code = (((1L << l) - 1) << (l + 1)) | (n & ((1L << l) - 1));
+        return (k & ~((1L << (63 - owner.bits)) - 1)) | (code << shift) | ((1L << shift) - 1);
     }
 
     class Publisher extends AFn implements Comparable<Publisher> {
-        final int[] ranks;
+        final Publisher owner;
+        final int index;
+        final int depth;
+        final int bits;
+        final long key;
         final Strategy strategy;
         final Object arg;
         final IFn effect;
 
         volatile int node;
         volatile int lock;
+        volatile Waiter waiters;
+        int spin = spins;
 
         Process current;
 
-        Publisher(int[] ranks, Strategy strategy, Object arg, IFn effect) {
-            this.ranks = ranks;
+        Publisher(Publisher owner, int index, Strategy strategy, Object arg, IFn effect) {
+            this.owner = owner;
+            this.index = index;
+            if (owner == null) {
+                this.depth = 0;
+                this.bits = 0;
+                this.key = Long.MAX_VALUE;
+            } else {
+                long n = (long) index + 1;
+                this.depth = owner.depth + 1;
+                this.bits = owner.bits + ((63 - Long.numberOfLeadingZeros(n)) << 1) + 1;
+                this.key = key(owner, n, bits);
+            }
             this.strategy = strategy;
             this.arg = arg;
             this.effect = effect;
@@ -47,7 +84,7 @@ public interface Propagator {
 
         @Override
         public int compareTo(Publisher that) {
-            return this == that ? 0 : lt(this.ranks, that.ranks) ? -1 : 1;
+            return this == that ? 0 : lt(this, that) ? -1 : 1;
         }
     }
 
@@ -58,19 +95,27 @@ public interface Propagator {
         Thread owner;
         Object input;
 
-        Object child;
-        Object sibling;
+        Process child;
+        Process sibling;
 
         Subscription ready;
         Subscription pending;
+        Subscription[] deferred;
+
+        Subscription upstream;
 
         boolean failed;
         boolean dirty;
         boolean flag;
+        boolean ended;
+        final boolean tracked;
+        volatile boolean queued;
+        int mark;
         Object state;
 
         Process(Publisher parent) {
             this.parent = parent;
+            this.tracked = parallel.get() != null;
         }
     }
 
@@ -86,6 +131,8 @@ public interface Propagator {
 
         Subscription prev;
         Subscription next;
+        Subscription upPrev;
+        Subscription upNext;
 
         boolean ready;
         Object state;
@@ -108,11 +155,17 @@ public interface Propagator {
         }
     }
 
+    class Waiter {
+        volatile Thread thread = Thread.currentThread();
+        Waiter next;
+    }
+
     class Context {
-        int[] cursor;
+        Publisher cursor;
         Process process;
         Process reacted;
         Process delayed;
+        boolean batch;
         Subscription[] buffer = new Subscription[1];
     }
 
@@ -128,70 +181,122 @@ public interface Propagator {
 
     ThreadLocal<Context> context = ThreadLocal.withInitial(Context::new);
 
-    int[] ceiling = new int[0];
+    Publisher ceiling = new Publisher(null, 0, null, null, null);
+
+    int spins = 1 << 6;
+
+    int maxSpins = 1 << 10;
 
     AtomicInteger root = new AtomicInteger();
 
+    AtomicInteger epoch = new AtomicInteger();
+
+    AtomicReference<ForkJoinPool> parallel =
+            new AtomicReference<>(Boolean.getBoolean("missionary.propagator.parallel") ? Thunk.Cpu.POOL : null);
+
     AtomicIntegerFieldUpdater<Publisher> node =
             AtomicIntegerFieldUpdater.newUpdater(Publisher.class, "node");
 
     AtomicIntegerFieldUpdater<Publisher> lock =
             AtomicIntegerFieldUpdater.newUpdater(Publisher.class, "lock");
 
+    AtomicReferenceFieldUpdater<Publisher, Waiter> waiters =
+            AtomicReferenceFieldUpdater.newUpdater(Publisher.class, Waiter.class, "waiters");
+
+    AtomicReferenceFieldUpdater<Waiter, Thread> thread =
+            AtomicReferenceFieldUpdater.newUpdater(Waiter.class, Thread.class, "thread");
+
     AtomicIntegerFieldUpdater<Process> pressure =
             AtomicIntegerFieldUpdater.newUpdater(Process.class, "pressure");
 
+    static ForkJoinPool install(ForkJoinPool pool) {
+        return parallel.getAndSet(pool);
+    }
+
+    static boolean lock(Publisher pub) {
+        return lock.get(pub) == 0 && 0 == lock.getAndSet(pub, 1);
+    }
+
     static void acquire(Publisher pub) {
-        for(;;) if (lock.get(pub) == 1) Thread.yield();
-        else if (0 == lock.getAndSet(pub, 1)) break;
+        if (!lock(pub)) contend(pub);
+    }
+
+    static void contend(Publisher pub) {
+        int n = pub.spin;
+        for (int i = 0; i < n; i++) if (lock(pub)) {
+            pub.spin = Math.min(n << 1, maxSpins);
+            return;
+        }
+        pub.spin = Math.max(n >> 1, 1);
+        for(;;) {
+            Waiter w = new Waiter();
+            Waiter h;
+            do w.next = h = pub.waiters;
+            while (!waiters.compareAndSet(pub, h, w));
+            while (w.thread != null && lock.get(pub) == 1) LockSupport.park(pub);
+            w.thread = null;
+            if (lock(pub)) return;
+        }
     }
 
     static void release(Publisher pub) {
         lock.set(pub, 0);
+        Waiter w;
+        while ((w = pub.waiters) != null) if (waiters.compareAndSet(pub, w, w.next)) {
+            Thread t = w.thread;
+            if (t != null && thread.compareAndSet(w, t, null)) {
+                LockSupport.unpark(t);
+                break;
+            }
+        }
     }
 
-    PairingHeap.Impl impl = PairingHeap.impl(
-            new AFn() {
-                @Override
-                public Object invoke(Object inst, Object x, Object y) {
-                    return lt(((Process) x).parent.ranks, ((Process) y).parent.ranks);
-                }
-            },
-            new AFn() {
-                @Override
-                public Object invoke(Object inst, Object x) {
-                    return ((Process) x).child;
-                }
-            }, new AFn() {
-                @Override
-                public Object invoke(Object inst, Object x, Object y) {
-                    ((Process) x).child = y;
-                    return null;
-                }
-            },
-            new AFn() {
-                @Override
-                public Object invoke(Object inst, Object x) {
-                    return ((Process) x).sibling;
-                }
-            }, new AFn() {
-                @Override
-                public Object invoke(Object inst, Object x, Object y) {
-                    ((Process) x).sibling = y;
-                    return null;
+    static Process meld(Process x, Process y) {
+        if (lt(x.parent, y.parent)) {
+            y.sibling = x.child;
+            x.child = y;
+            return x;
+        } else {
+            x.sibling = y.child;
+            y.child = x;
+            return y;
+        }
+    }
+
+    static Process dmin(Process x) {
+        Process head = x.child;
+        if (head == null) return null; else {
+            x.child = null;
+            Process heap = null;
+            Process prev = null;
+            for(;;) {
+                Process next = head.sibling;
+                if (prev == null) if (next == null) return heap == null ? head : meld(heap, head);
+                else {
+                    prev = head;
+                    head = next;
+                } else {
+                    head = meld(prev, head);
+                    heap = heap == null ? head : meld(heap, head);
+                    if (next == null) return heap; else {
+                        prev = null;
+                        head = next;
+                    }
                 }
             }
-    );
+        }
+    }
 
     static Process enqueue(Process r, Process p) {
         p.child = null;
-        return r == null ? p : (Process) PairingHeap.meld(impl, null, p, r);
+        if (p.tracked) p.queued = true;
+        return r == null ? p : meld(p, r);
     }
 
     static void schedule(Process ps) {
         Publisher pub = ps.parent;
         Context ctx = context.get();
-        if (lt(ctx.cursor, pub.ranks))
+        if (lt(ctx.cursor, pub))
             ctx.reacted = enqueue(ctx.reacted, ps);
         else
             ctx.delayed = enqueue(ctx.delayed, ps);
@@ -298,6 +403,10 @@ public interface Propagator {
     static void stepAll(Process ps) {
         Context ctx = context.get();
         invalidate(ctx, ps);
+        if (ctx.batch) {
+            defer(ctx, ps);
+            return;
+        }
         int i = 0;
         Subscription[] buf = ctx.buffer;
         Subscription sub = buf[i];
@@ -312,12 +421,18 @@ public interface Propagator {
     static void doneAll(Process ps) {
         Context ctx = context.get();
         terminate(ctx, ps);
+        if (ctx.batch) {
+            defer(ctx, ps);
+            ps.ended = ps.deferred != null;
+            return;
+        }
         int i = 0;
         Subscription[] buf = ctx.buffer;
         Subscription sub = buf[i];
         while (sub != null) {
             buf[i++] = null;
             ctx.process = sub.source;
+            untrack(sub);
             sub.rcb.invoke();
             sub = buf[i];
         }
@@ -346,6 +461,7 @@ public interface Propagator {
         while (sub != null) {
             buf[i++] = null;
             ctx.process = sub.source;
+            untrack(sub);
             sub.rcb.invoke(ps.state);
             sub = buf[i];
         }
@@ -387,21 +503,200 @@ public interface Propagator {
         }
     }
 
+    static void defer(Context ctx, Process ps) {
+        Subscription[] buf = ctx.buffer;
+        int n = 0;
+        while (buf[n] != null) n++;
+        if (n != 0) {
+            ps.deferred = Arrays.copyOf(buf, n);
+            Arrays.fill(buf, 0, n, null);
+        }
+    }
+
+    static void track(Subscription sub) {
+        Process ps = sub.source;
+        if (ps != null && ps.tracked) synchronized (ps) {
+            Subscription h = ps.upstream;
+            if (h == null) {
+                sub.upPrev = sub;
+                sub.upNext = sub;
+                ps.upstream = sub;
+            } else {
+                Subscription n = h.upNext;
+                h.upNext = sub;
+                sub.upPrev = h;
+                sub.upNext = n;
+                n.upPrev = sub;
+            }
+        }
+    }
+
+    static void untrack(Subscription sub) {
+        Process ps = sub.source;
+        if (ps != null && ps.tracked) synchronized (ps) {
+            Subscription n = sub.upNext;
+            if (n != null) {
+                if (n == sub) ps.upstream = null; else {
+                    Subscription p = sub.upPrev;
+                    p.upNext = n;
+                    n.upPrev = p;
+                    if (ps.upstream == sub) ps.upstream = n;
+                }
+                sub.upPrev = null;
+                sub.upNext = null;
+            }
+        }
+    }
+
+    static boolean independent(Process ps, int mark) {
+        int m = ps.mark;
+        if (m == mark) return true;
+        if (m == -mark) return false;
+        boolean free = ps.tracked;
+        if (free) synchronized (ps) {
+            Subscription h = ps.upstream;
+            if (h != null) {
+                Subscription sub = h;
+                do {
+                    Process up = sub.target;
+                    if (up.queued || !independent(up, mark)) {
+                        free = false;
+                        break;
+                    }
+                    sub = sub.upNext;
+                } while (sub != h);
+            }
+        }
+        ps.mark = free ? mark : -mark;
+        return free;
+    }
+
+    static boolean eligible(Process ps) {
+        Strategy s = ps.parent.strategy;
+        return !ps.failed && !ps.flag && (s == signal || s == stream);
+    }
+
+    static void tick(Context ctx, Process ps) {
+        Publisher pub = ps.parent;
+        if (ps.tracked) ps.queued = false;
+        ctx.cursor = pub;
+        acquire(pub);
+        if (ps.failed) if (ps.owner == null) failedEmit(ps); else {
+            ps.owner = null;
+            if (ack(ps)) failedEmit(ps);
+            else release(pub);
+        } else pub.strategy.tick(ps);
+    }
+
+    static void refresh(Context ctx, Process ps) {
+        Process p = ctx.process;
+        ps.dirty = false;
+        ctx.cursor = ps.parent;
+        ctx.process = ps;
+        ps.parent.strategy.refresh(ps);
+        ctx.process = p;
+    }
+
+    static void compute(Context ctx, Process ps, Thread owner) {
+        Publisher pub = ps.parent;
+        acquire(pub);
+        try {
+            if (ps.dirty) {
+                refresh(ctx, ps);
+                if (ps.owner == Thread.currentThread()) ps.owner = owner;
+            }
+        } finally {
+            release(pub);
+        }
+    }
+
+    static void fork(Context ctx, Process ps, Thread owner) {
+        Context prev = context.get();
+        context.set(ctx);
+        try {
+            compute(ctx, ps, owner);
+        } finally {
+            context.set(prev);
+        }
+    }
+
+    static void batch(Context ctx, ForkJoinPool pool, ArrayList<Process> frontier) {
+        ctx.batch = true;
+        try {
+            for (Process ps : frontier) tick(ctx, ps);
+        } finally {
+            ctx.batch = false;
+        }
+        ArrayList<Process> dirty = new ArrayList<>();
+        for (Process ps : frontier) if (ps.deferred != null && !ps.ended) dirty.add(ps);
+        int n = dirty.size();
+        Throwable error = null;
+        if (n != 0) {
+            Thread owner = Thread.currentThread();
+            Context[] contexts = new Context[n - 1];
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[n - 1];
+            for (int i = 1; i < n; i++) {
+                Context c = contexts[i - 1] = new Context();
+                Process ps = dirty.get(i);
+                tasks[i - 1] = pool.submit(() -> fork(c, ps, owner));
+            }
+            try {
+                compute(ctx, dirty.get(0), owner);
+            } catch (Throwable e) {
+                error = e;
+            }
+            for (int i = 0; i < n - 1; i++) {
+                try {
+                    tasks[i].join();
+                } catch (Throwable e) {
+                    if (error == null) error = e;
+                }
+                Context c = contexts[i];
+                if (c.reacted != null) ctx.reacted = ctx.reacted == null ? c.reacted : meld(ctx.reacted, c.reacted);
+                if (c.delayed != null) ctx.delayed = ctx.delayed == null ? c.delayed : meld(ctx.delayed, c.delayed);
+            }
+        }
+        for (Process ps : frontier) {
+            Subscription[] subs = ps.deferred;
+            if (subs != null) {
+                ps.deferred = null;
+                ctx.cursor = ps.parent;
+                if (ps.ended) {
+                    ps.ended = false;
+                    for (Subscription sub : subs) {
+                        ctx.process = sub.source;
+                        untrack(sub);
+                        sub.rcb.invoke();
+                    }
+                } else for (Subscription sub : subs) {
+                    ctx.process = sub.source;
+                    sub.lcb.invoke();
+                }
+            }
+        }
+        if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+    }
+
     static void leave(Context ctx, boolean idle) {
         if (idle) {
             Process ps;
             while ((ps = ctx.delayed) != null) {
                 ctx.delayed = null;
                 do {
-                    Publisher pub = ps.parent;
-                    ctx.cursor = pub.ranks;
-                    ctx.reacted = (Process) PairingHeap.dmin(impl, null, ps);
-                    acquire(pub);
-                    if (ps.failed) if (ps.owner == null) failedEmit(ps); else {
-                        ps.owner = null;
-                        if (ack(ps)) failedEmit(ps);
-                        else release(pub);
-                    } else pub.strategy.tick(ps);
+                    ctx.reacted = dmin(ps);
+                    ForkJoinPool pool = parallel.get();
+                    if (pool != null && eligible(ps)) {
+                        ArrayList<Process> frontier = new ArrayList<>();
+                        frontier.add(ps);
+                        int mark = (epoch.incrementAndGet() & Integer.MAX_VALUE) | 1;
+                        Process r;
+                        while ((r = ctx.reacted) != null && eligible(r) && independent(r, mark)) {
+                            ctx.reacted = dmin(r);
+                            frontier.add(r);
+                        }
+                        if (frontier.size() == 1) tick(ctx, ps);
+                        else batch(ctx, pool, frontier);
+                    } else tick(ctx, ps);
                 } while ((ps = ctx.reacted) != null);
             }
             ctx.cursor = null;
@@ -441,6 +736,7 @@ public interface Propagator {
         Publisher pub = ps.parent;
         Context ctx = context.get();
         release(pub);
+        untrack(sub);
         sub.rcb.invoke();
         leave(ctx, idle);
     }
@@ -459,6 +755,7 @@ public interface Propagator {
         Publisher pub = ps.parent;
         Context ctx = context.get();
         release(pub);
+        untrack(sub);
         sub.rcb.invoke(ps.state);
         leave(ctx, idle);
     }
@@ -518,6 +815,7 @@ public interface Propagator {
             target = ps;
         }
         Subscription sub = new Subscription(source, target, lcb, rcb);
+        track(sub);
         if (target.failed) step(sub, idle); else pub.strategy.subscribe(sub, idle);
         return sub;
     }
@@ -526,6 +824,7 @@ public interface Propagator {
         Process ps = sub.target;
         Publisher pub = ps.parent;
         Context ctx = context.get();
+        untrack(sub);
         boolean idle = enter(ctx);
         acquire(pub);
         if (sub.next == null || ps.input == null || pub.current != ps) {
@@ -562,21 +861,10 @@ public interface Propagator {
         }
     }
 
-    static int[] ranks(Context ctx) {
-        Process ps = ctx.process;
-        if (ps == null) return new int[] {root.getAndIncrement()}; else {
-            Publisher p = ps.parent;
-            int[] r = p.ranks;
-            int s = r.length;
-            int[] ranks = new int[s + 1];
-            System.arraycopy(r, 0, ranks, 0, s);
-            ranks[s] = node.getAndIncrement(p);
-            return ranks;
-        }
-    }
-
     static Publisher publisher(Strategy strategy, Object arg, IFn effect) {
-        return new Publisher(ranks(context.get()), strategy, arg, effect);
+        Process ps = context.get().process;
+        return ps == null ? new Publisher(ceiling, root.getAndIncrement(), strategy, arg, effect) :
+                new Publisher(ps.parent, node.getAndIncrement(ps.parent), strategy, arg, effect);
     }
 
     Strategy memo = new Strategy() {
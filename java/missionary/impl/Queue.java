@@ -0,0 +1,90 @@
+package missionary.impl;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+final class Queue {
+    static final AtomicReferenceFieldUpdater<Queue, Event> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(Queue.class, Event.class, "tail");
+    static final AtomicIntegerFieldUpdater<Queue> WIP =
+            AtomicIntegerFieldUpdater.newUpdater(Queue.class, "wip");
+    static final AtomicIntegerFieldUpdater<Queue> GARBAGE =
+            AtomicIntegerFieldUpdater.newUpdater(Queue.class, "garbage");
+    static final AtomicIntegerFieldUpdater<Queue> SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(Queue.class, "size");
+
+    static final int SWEEP = 32;
+
+    Event head;
+
+    volatile Event tail;
+    volatile int wip;
+    volatile int garbage;
+    volatile int size;
+
+    Queue() {
+        head = tail = new Event(null, null, null);
+    }
+
+    static void push(Queue q, Event e) {
+        SIZE.incrementAndGet(q);
+        TAIL.getAndSet(q, e).next = e;
+    }
+
+    static boolean enter(Queue q) {
+        return WIP.getAndIncrement(q) == 0;
+    }
+
+    static boolean exit(Queue q) {
+        tidy(q);
+        return WIP.decrementAndGet(q) != 0;
+    }
+
+    static boolean idle(Queue q) {
+        return q.head == q.tail;
+    }
+
+    static void tidy(Queue q) {
+        int g = q.garbage;
+        if (SWEEP < g && q.size < g << 1) {
+            GARBAGE.set(q, 0);
+            sweep(q);
+        }
+    }
+
+    static void discard(Queue q) {
+        GARBAGE.incrementAndGet(q);
+    }
+
+    static Event peek(Queue q) {
+        for(;;) {
+            Event e = q.head.next;
+            if (e == null || e.state != Event.DONE) return e;
+            pop(q);
+        }
+    }
+
+    static Event pop(Queue q) {
+        Event h = q.head;
+        Event e = h.next;
+        h.next = null;
+        q.head = e;
+        SIZE.decrementAndGet(q);
+        return e;
+    }
+
+    static void sweep(Queue q) {
+        Event p = q.head;
+        Event e;
+        int n = 0;
+        while ((e = p.next) != null) {
+            Event x = e.next;
+            if (x != null && e.state == Event.DONE) {
+                p.next = x;
+                e.next = null;
+                n++;
+            } else p = e;
+        }
+        SIZE.addAndGet(q, -n);
+    }
+}
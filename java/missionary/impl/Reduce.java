@@ -1,12 +1,35 @@
 package missionary.impl;
 
-import clojure.lang.AFn;
-import clojure.lang.IDeref;
-import clojure.lang.IFn;
-import clojure.lang.Reduced;
+import clojure.lang.*;
+
+import static missionary.impl.Util.NOP;
 
 public interface Reduce {
 
+    IFn REDUCE = RT.var("clojure.core", "reduce");
+
+    final class Fused extends AFn {
+        final IFn reducer;
+        boolean done;
+
+        Fused(IFn r) {
+            reducer = r;
+        }
+
+        @Override
+        public Object invoke(Object r) {
+            return r;
+        }
+
+        @Override
+        public Object invoke(Object r, Object x) {
+            if (done) return r;
+            r = reducer.invoke(r, x);
+            done = r instanceof Reduced;
+            return r;
+        }
+    }
+
     class Process extends AFn {
         static {
             Util.printDefault(Process.class);
@@ -30,7 +53,9 @@ public interface Reduce {
         IFn f = p.reducer;
         Object r = p.result;
         try {
-            r = r == p ? f.invoke() : f.invoke(r, ((IDeref) p.input).deref());
+            r = r == p ? f.invoke() : p.input instanceof Chunk.Source
+                    ? Chunk.reduce(f, r, ((Chunk.Source) p.input).chunk(Integer.MAX_VALUE))
+                    : f.invoke(r, ((IDeref) p.input).deref());
             if (r instanceof Reduced) {
                 ((IFn) p.input).invoke();
                 p.reducer = null;
@@ -55,7 +80,33 @@ public interface Reduce {
         } else transfer(p);
     }
 
-    static Process run(IFn r, IFn i, IFn s, IFn f) {
+    static IFn fuse(IFn r, Object flow, IFn s, IFn f) {
+        Fused rf = new Fused(r);
+        IFn xrf = rf;
+        while (flow instanceof Eduction.Flow) {
+            Eduction.Flow e = (Eduction.Flow) flow;
+            xrf = (IFn) e.xform.invoke(xrf);
+            flow = e.input;
+        }
+        Object result;
+        try {
+            result = REDUCE.invoke(xrf, r.invoke(), ((Seed.Flow) flow).coll);
+            if (!rf.done) result = xrf.invoke(result);
+        } catch (Throwable e) {
+            f.invoke(e);
+            return NOP;
+        }
+        s.invoke(result);
+        return NOP;
+    }
+
+    static boolean fusible(Object flow) {
+        while (flow instanceof Eduction.Flow) flow = ((Eduction.Flow) flow).input;
+        return flow instanceof Seed.Flow;
+    }
+
+    static IFn run(IFn r, IFn i, IFn s, IFn f) {
+        if (fusible(i)) return fuse(r, i, s, f);
         Process p = new Process();
         p.busy = true;
         p.result = p;
@@ -3,21 +3,17 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
-
 import static missionary.impl.Util.NOP;
 
 public interface Rendezvous {
 
-    AtomicReferenceFieldUpdater<Port, Object> STATE =
-            AtomicReferenceFieldUpdater.newUpdater(Port.class, Object.class, "state");
-
     final class Port extends AFn implements Event.Emitter {
         static {
             Util.printDefault(Port.class);
         }
 
-        volatile Object state = null;
+        final Queue givers = new Queue();
+        final Queue takers = new Queue();
 
         @Override
         public Object invoke(Object x) {
@@ -59,74 +55,128 @@ public interface Rendezvous {
         }
     }
 
-    static void cancelTake(Port port, Event event) {
+    static Event fulfil(Queue q) {
         for(;;) {
-            Object s = port.state;
-            if (!(s instanceof IPersistentSet)) break;
-            IPersistentSet set = (IPersistentSet) s;
-            if (!(set.contains(event))) break;
-            if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(event))) {
-                event.failure.invoke(new Cancelled("Rendez-vous take cancelled."));
-                break;
+            Event e = Queue.peek(q);
+            if (e == null) return null;
+            if (Event.claim(e)) {
+                Queue.pop(q);
+                return e;
             }
         }
     }
 
-    static IFn take(Port port, IFn success, IFn failure) {
+    static Throwable match(Port port, boolean giverFirst, Throwable error) {
+        Queue takers = port.takers;
+        Queue givers = port.givers;
         for(;;) {
-            Object s = port.state;
-            if (s instanceof IPersistentMap) {
-                IPersistentMap map = (IPersistentMap) s;
-                MapEntry e = (MapEntry) RT.iter(s).next();
-                if (STATE.compareAndSet(port, s, map.count() == 1 ? null : map.without(e.key()))) {
-                    ((Event) e.key()).success.invoke(null);
-                    success.invoke(e.val());
-                    return NOP;
-                }
-            } else {
+            Event t = Queue.peek(takers);
+            if (t == null) break;
+            Event g = Queue.peek(givers);
+            if (g == null) break;
+            if (Event.STATE.compareAndSet(g, Event.LIVE, Event.BUSY)) {
+                if (Event.claim(t)) {
+                    g.state = Event.DONE;
+                    Queue.pop(takers);
+                    Queue.pop(givers);
+                    Object x = g.value;
+                    if (giverFirst) {
+                        error = Event.succeed(g, null, error);
+                        error = Event.succeed(t, x, error);
+                    } else {
+                        error = Event.succeed(t, x, error);
+                        error = Event.succeed(g, null, error);
+                    }
+                } else g.state = Event.LIVE;
+            }
+        }
+        Queue.tidy(givers);
+        return error;
+    }
+
+    static void transfer(Port port, boolean giverFirst) {
+        Throwable error = null;
+        if (Queue.enter(port.takers)) do error = match(port, giverFirst, error);
+        while (Queue.exit(port.takers));
+        if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+    }
+
+    static void cancelTake(Port port, Event e) {
+        if (Event.cancel(e)) {
+            Queue.discard(port.takers);
+            Event.fail(e, new Cancelled("Rendez-vous take cancelled."));
+            transfer(port, true);
+        }
+    }
+
+    static IFn take(Port port, IFn success, IFn failure) {
+        Queue takers = port.takers;
+        if (Queue.idle(takers) && Queue.enter(takers)) {
+            Throwable error = null;
+            IFn cancel = NOP;
+            Event g = fulfil(port.givers);
+            if (g == null) {
                 Event e = new Event(port, success, failure);
-                IPersistentSet set = (s == null) ? PersistentHashSet.EMPTY : (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.cons(e))) return e;
+                Queue.push(takers, e);
+                cancel = e;
+            }
+            do error = match(port, true, error);
+            while (Queue.exit(takers));
+            if (g != null) {
+                Object x = g.value;
+                error = Event.succeed(g, null, error);
+                error = Event.deliver(success, x, error);
             }
+            if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+            return cancel;
+        } else {
+            Event e = new Event(port, success, failure);
+            Queue.push(takers, e);
+            transfer(port, true);
+            return e;
         }
     }
 
     static void cancelGive(Give g, Event e) {
         Port port = g.port;
-        for(;;) {
-            Object s = port.state;
-            if (!(s instanceof IPersistentMap)) break;
-            IPersistentMap map = (IPersistentMap) s;
-            if (!(map.containsKey(e))) break;
-            if (STATE.compareAndSet(port, s, map.count() == 1 ? null : map.without(e))) {
-                e.failure.invoke(new Cancelled("Rendez-vous give cancelled."));
-                break;
-            }
+        if (Event.cancel(e)) {
+            Queue.discard(port.givers);
+            Event.fail(e, new Cancelled("Rendez-vous give cancelled."));
+            transfer(port, false);
         }
     }
 
     static IFn give(Give g, IFn success, IFn failure) {
         Port port = g.port;
-        Object value = g.value;
-        for(;;) {
-            Object s = port.state;
-            if (s instanceof IPersistentSet) {
-                IPersistentSet set = (IPersistentSet) s;
-                Event e = (Event) RT.iter(s).next();
-                if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                    e.success.invoke(value);
-                    success.invoke(null);
-                    return NOP;
-                }
-            } else {
+        Queue takers = port.takers;
+        if (Queue.idle(port.givers) && Queue.enter(takers)) {
+            Throwable error = null;
+            IFn cancel = NOP;
+            Event t = fulfil(takers);
+            if (t == null) {
                 Event e = new Event(g, success, failure);
-                IPersistentMap map = s == null ? PersistentHashMap.EMPTY : (IPersistentMap) s;
-                if (STATE.compareAndSet(port, s, map.assoc(e, value))) return e;
+                e.value = g.value;
+                Queue.push(port.givers, e);
+                cancel = e;
+            }
+            do error = match(port, false, error);
+            while (Queue.exit(takers));
+            if (t != null) {
+                error = Event.succeed(t, g.value, error);
+                error = Event.deliver(success, null, error);
             }
+            if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+            return cancel;
+        } else {
+            Event e = new Event(g, success, failure);
+            e.value = g.value;
+            Queue.push(port.givers, e);
+            transfer(port, false);
+            return e;
         }
     }
 
     static Port make() {
         return new Port();
     }
-}
\ No newline at end of file
+}
@@ -3,18 +3,42 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 
 public interface Seed {
 
-    final class Process extends AFn implements IDeref {
+    final class Flow extends AFn {
+        final Object coll;
+
+        Flow(Object c) {
+            coll = c;
+        }
+
+        @Override
+        public Object invoke(Object n, Object t) {
+            return Seed.run(coll, (IFn) n, (IFn) t);
+        }
+    }
+
+    final class Process extends AFn implements IDeref, Chunk.Source {
         static {
             Util.printDefault(Process.class);
         }
 
         IFn notifier;
         IFn terminator;
-        volatile Iterator iterator;
+        Iterator iterator;
+        Object[] array;
+        Object[] leaf;
+        PersistentVector vector;
+        List list;
+        int index;
+        int count;
+
+        volatile boolean cancelled;
 
         @Override
         public Object invoke() {
@@ -26,39 +50,102 @@ public interface Seed {
         public Object deref() {
             return transfer(this);
         }
+
+        @Override
+        public Object[] chunk(int n) {
+            return Seed.chunk(this, n);
+        }
     }
 
     static void cancel(Process ps) {
-        ps.iterator = null;
+        ps.cancelled = true;
     }
 
-    static Object transfer(Process ps) {
-        Iterator i = ps.iterator;
-        if (i == null) {
+    static void check(Process ps) {
+        if (ps.cancelled) {
             ps.terminator.invoke();
             clojure.lang.Util.sneakyThrow(new Cancelled("Seed cancelled."));
         }
-        Object x = i.next();
-        more(ps, i);
+    }
+
+    static Object transfer(Process ps) {
+        check(ps);
+        Object x;
+        Iterator i = ps.iterator;
+        if (i == null) {
+            int j = ps.index++;
+            x = ps.array != null ? ps.array[j] : ps.vector != null ? leaf(ps, j)[j & 31] : ps.list.get(j);
+        } else x = i.next();
+        more(ps);
         return x;
     }
 
+    static Object[] chunk(Process ps, int n) {
+        check(ps);
+        Object[] xs;
+        Iterator i = ps.iterator;
+        if (i == null) {
+            int j = ps.index;
+            int k = Math.min(Math.min(n, Chunk.SIZE), ps.count - j);
+            ps.index = j + k;
+            if (ps.array != null) xs = Arrays.copyOfRange(ps.array, j, j + k);
+            else if (ps.vector != null) {
+                xs = new Object[k];
+                for (int l = 0; l < k;) {
+                    int p = j + l;
+                    int m = Math.min(k - l, 32 - (p & 31));
+                    System.arraycopy(leaf(ps, p), p & 31, xs, l, m);
+                    l += m;
+                }
+            } else {
+                xs = new Object[k];
+                for (int l = 0; l < k; l++) xs[l] = ps.list.get(j + l);
+            }
+        } else {
+            xs = new Object[Math.min(n, Chunk.SIZE)];
+            int k = 0;
+            do xs[k++] = i.next(); while (k != xs.length && i.hasNext());
+            if (k != xs.length) xs = Arrays.copyOf(xs, k);
+        }
+        more(ps);
+        return xs;
+    }
+
+    static Object[] leaf(Process ps, int j) {
+        Object[] a = ps.leaf;
+        if (a == null || (j & 31) == 0) a = ps.leaf = ps.vector.arrayFor(j);
+        return a;
+    }
+
     // TODO handle exceptions thrown by iterator
-    static void more(Process ps, Iterator i) {
-        if (i.hasNext()) ps.notifier.invoke();
+    static void more(Process ps) {
+        Iterator i = ps.iterator;
+        if (i == null ? ps.index < ps.count : i.hasNext()) ps.notifier.invoke();
         else {
-            ps.iterator = null;
+            ps.cancelled = true;
             ps.terminator.invoke();
         }
     }
 
     static Process run(Object coll, IFn n, IFn t) {
         Process ps = new Process();
-        Iterator i = RT.iter(coll);
         ps.notifier = n;
         ps.terminator = t;
-        ps.iterator = i;
-        more(ps, i);
+        if (coll instanceof Object[]) {
+            ps.array = (Object[]) coll;
+            ps.count = ps.array.length;
+        } else if (coll instanceof PersistentVector) {
+            ps.vector = (PersistentVector) coll;
+            ps.count = ps.vector.count();
+        } else if (coll instanceof RandomAccess && coll instanceof List && !(coll instanceof APersistentVector)) {
+            ps.list = (List) coll;
+            ps.count = ps.list.size();
+        } else ps.iterator = RT.iter(coll);
+        more(ps);
         return ps;
     }
-}
\ No newline at end of file
+
+    static Flow flow(Object coll) {
+        return new Flow(coll);
+    }
+}
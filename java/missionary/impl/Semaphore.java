@@ -3,35 +3,37 @@ package missionary.impl;
 import clojure.lang.*;
 import missionary.Cancelled;
 
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import static missionary.impl.Util.NOP;
 
 public interface Semaphore {
 
-    AtomicReferenceFieldUpdater<Port, Object> STATE =
-            AtomicReferenceFieldUpdater.newUpdater(Port.class, Object.class, "state");
+    AtomicLongFieldUpdater<Port> PERMITS =
+            AtomicLongFieldUpdater.newUpdater(Port.class, "permits");
 
     final class Port extends AFn implements Event.Emitter {
         static {
             Util.printDefault(Port.class);
         }
 
-        volatile Object state;
+        final Queue waiters = new Queue();
 
-        Port(int n) {
-            state = n;
+        volatile long permits;
+
+        Port(long n) {
+            permits = n;
         }
 
         @Override
         public Object invoke() {
-            release(this);
+            release(this, 1);
             return null;
         }
 
         @Override
         public Object invoke(Object s, Object f) {
-            return acquire(this, (IFn) s, (IFn) f);
+            return acquire(this, 1, (IFn) s, (IFn) f);
         }
 
         @Override
@@ -40,53 +42,62 @@ public interface Semaphore {
         }
     }
 
-    static void release(Port port) {
+    static boolean take(Port port, long n) {
         for(;;) {
-            Object s = port.state;
-            if (s instanceof IPersistentSet) {
-                Event e = (Event) RT.iter(s).next();
-                IPersistentSet set = (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                    e.success.invoke(null);
-                    break;
-                }
-            } else if (STATE.compareAndSet(port, s, s == null ? 1 : ((Integer) s) + 1)) break;
+            long p = port.permits;
+            if (p < n) return false;
+            if (PERMITS.compareAndSet(port, p, p - n)) return true;
         }
     }
 
-    static IFn acquire(Port port, IFn success, IFn failure) {
-        for(;;) {
-            Object s = port.state;
-            if (s instanceof Integer) {
-                int n = (Integer) s;
-                if (STATE.compareAndSet(port, s, n == 1 ? null : n - 1)) {
-                    success.invoke(null);
-                    return NOP;
+    static void transfer(Port port) {
+        Queue waiters = port.waiters;
+        Throwable error = null;
+        if (Queue.enter(waiters)) do {
+            for(;;) {
+                Event w = Queue.peek(waiters);
+                if (w == null) break;
+                long n = (Long) w.value;
+                if (port.permits < n) break;
+                if (Event.STATE.compareAndSet(w, Event.LIVE, Event.BUSY)) {
+                    if (take(port, n)) {
+                        w.state = Event.DONE;
+                        Queue.pop(waiters);
+                        error = Event.succeed(w, null, error);
+                    } else w.state = Event.LIVE;
                 }
-            } else {
-                Event e = new Event(port, success, failure);
-                IPersistentSet set = (s == null) ? PersistentHashSet.EMPTY : (IPersistentSet) s;
-                if (STATE.compareAndSet(port, s, set.cons(e))) return e;
             }
+        } while (Queue.exit(waiters));
+        if (error != null) throw clojure.lang.Util.sneakyThrow(error);
+    }
+
+    static void release(Port port, long n) {
+        PERMITS.addAndGet(port, n);
+        transfer(port);
+    }
+
+    static IFn acquire(Port port, long n, IFn success, IFn failure) {
+        if (Queue.idle(port.waiters) && take(port, n)) {
+            success.invoke(null);
+            return NOP;
+        } else {
+            Event e = new Event(port, success, failure);
+            e.value = n;
+            Queue.push(port.waiters, e);
+            transfer(port);
+            return e;
         }
     }
 
     static void cancelAcquire(Port port, Event e) {
-        for(;;) {
-            Object s = port.state;
-            if (!(s instanceof IPersistentSet)) break;
-            IPersistentSet set = (IPersistentSet) s;
-            if (!(set.contains(e))) break;
-            if (STATE.compareAndSet(port, s, set.count() == 1 ? null : set.disjoin(e))) {
-                e.failure.invoke(new Cancelled("Semaphore acquire cancelled."));
-                break;
-            }
+        if (Event.cancel(e)) {
+            Queue.discard(port.waiters);
+            Event.fail(e, new Cancelled("Semaphore acquire cancelled."));
+            transfer(port);
         }
     }
 
-    static Port make(int permits) {
+    static Port make(long permits) {
         return new Port(permits);
     }
 }
-
-
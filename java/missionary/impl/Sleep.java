@@ -4,23 +4,52 @@ import clojure.lang.AFn;
 import clojure.lang.IFn;
 import missionary.Cancelled;
 
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 public interface Sleep {
-    Scheduler S = new Scheduler();
+    Scheduler S = scheduler(System.getProperty("missionary.sleep.scheduler", "heap"),
+            Integer.getInteger("missionary.sleep.shards", 1));
     Cancelled C = new Cancelled("Sleep cancelled.");
+    AtomicReference<Scheduler> CURRENT = new AtomicReference<>(S);
 
-    final class Scheduler extends Thread {
-        final Lock L = new ReentrantLock();
-        final Condition C = L.newCondition();
+    int PENDING = 0;
+    int EXPIRED = 1;
+    int CANCELLED = 2;
+
+    long MAX = Long.MAX_VALUE >> 1;
+
+    interface Scheduler {
+        IFn schedule(long n, Object x, IFn s, IFn f);
+    }
+
+    AtomicReferenceFieldUpdater<Heap, Process> HEAP_INBOX =
+            AtomicReferenceFieldUpdater.newUpdater(Heap.class, Process.class, "inbox");
+
+    AtomicIntegerFieldUpdater<Process> PROCESS_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Process.class, "state");
+
+    final class Heap extends Thread implements Scheduler {
+        final long coalesce;
+        final HashMap<Long, Process> batches;
 
         Process queue = null;
 
-        Scheduler() {
-            super("missionary scheduler");
+        volatile Process inbox;
+        volatile long next;
+        volatile boolean idle;
+
+        Heap(String name, long coalesce) {
+            super(name);
+            this.coalesce = Math.max(0, coalesce);
+            this.batches = this.coalesce == 0 ? null : new HashMap<>();
             setDaemon(true);
             start();
         }
@@ -28,27 +57,59 @@ public interface Sleep {
         @Override
         public void run() {
             for(;;) try {
-                IFn s = null;
-                Object x = null;
-                L.lock();
+                for (Process ps = reverse(HEAP_INBOX.getAndSet(this, null)); ps != null;) {
+                    Process sibling = ps.sibling;
+                    ps.sibling = null;
+                    Process last = batches == null ? null : batches.put(ps.time, ps);
+                    if (last == null) queue = queue == null ? ps : link(ps, queue);
+                    else last.batch = ps;
+                    ps = sibling;
+                }
                 Process head = queue;
-                if (head == null) C.await(); else {
-                    long d = head.time - System.currentTimeMillis();
-                    if (0 < d) C.await(d, TimeUnit.MILLISECONDS); else {
-                        s = head.success;
-                        x = head.payload;
-                        head.payload = null;
-                        head.success = null;
-                        head.failure = null;
+                if (head == null) {
+                    idle = true;
+                    if (inbox == null) LockSupport.park(this);
+                    idle = false;
+                } else if (head.state != PENDING && head.batch == null) {
+                    queue = dequeue(head);
+                    if (batches != null) batches.remove(head.time, head);
+                } else {
+                    long d = head.time - System.nanoTime();
+                    if (0 < d) {
+                        next = head.time;
+                        if (inbox == null) LockSupport.parkNanos(this, d);
+                    } else {
                         queue = dequeue(head);
+                        if (batches != null) batches.remove(head.time);
+                        do {
+                            Process batch = head.batch;
+                            head.batch = null;
+                            fire(head);
+                            head = batch;
+                        } while (head != null);
                     }
                 }
-                L.unlock();
-                if (s != null) s.invoke(x);
             } catch (Throwable e) {
                 e.printStackTrace();
             }
         }
+
+        @Override
+        public IFn schedule(long n, Object x, IFn s, IFn f) {
+            Process ps = new Process();
+            ps.payload = x;
+            ps.success = s;
+            ps.failure = f;
+            long t = System.nanoTime() + n;
+            ps.time = coalesce == 0 ? t : t + coalesce - 1 - Math.floorMod(t + coalesce - 1, coalesce);
+            for(;;) {
+                Process i = inbox;
+                ps.sibling = i;
+                if (HEAP_INBOX.compareAndSet(this, i, ps)) break;
+            }
+            if (idle || ps.time - next < 0) LockSupport.unpark(this);
+            return ps;
+        }
     }
 
     final class Process extends AFn {
@@ -56,28 +117,300 @@ public interface Sleep {
             Util.printDefault(Process.class);
         }
 
+        volatile int state;
+
         Object payload;
         IFn success;
         IFn failure;
         long time;
         Process sibling;
         Process child;
+        Process batch;
 
         @Override
         public Object invoke() {
-            IFn f;
-            S.L.lock();
-            f = failure;
-            failure = null;
-            success = null;
-            payload = null;
-            S.L.unlock();
-            return f == null ? null : f.invoke(C);
+            if (PROCESS_STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                IFn f = failure;
+                failure = null;
+                success = null;
+                payload = null;
+                f.invoke(C);
+            }
+            return null;
+        }
+    }
+
+    final class Shards implements Scheduler {
+        final Scheduler[] shards;
+
+        Shards(Scheduler[] shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        public IFn schedule(long n, Object x, IFn s, IFn f) {
+            return shards[(int) (Thread.currentThread().getId() % shards.length)].schedule(n, x, s, f);
+        }
+    }
+
+    final class Virtual implements Scheduler {
+        final Lock L = new ReentrantLock();
+
+        Process queue = null;
+        long now = 0;
+
+        public long now() {
+            L.lock();
+            long t = now;
+            L.unlock();
+            return t;
+        }
+
+        public void advance(long n) {
+            L.lock();
+            long target = now + Math.min(Math.max(0, n), MAX);
+            L.unlock();
+            for(;;) {
+                IFn s = null;
+                Object x = null;
+                L.lock();
+                Process head = queue;
+                if (head == null || 0 < head.time - target) {
+                    now = target;
+                    L.unlock();
+                    break;
+                }
+                queue = dequeue(head);
+                if (0 < head.time - now) now = head.time;
+                if (PROCESS_STATE.compareAndSet(head, PENDING, EXPIRED)) {
+                    s = head.success;
+                    x = head.payload;
+                    head.payload = null;
+                    head.success = null;
+                    head.failure = null;
+                }
+                L.unlock();
+                if (s != null) s.invoke(x);
+            }
+        }
+
+        @Override
+        public IFn schedule(long n, Object x, IFn s, IFn f) {
+            Process ps = new Process();
+            ps.payload = x;
+            ps.success = s;
+            ps.failure = f;
+            L.lock();
+            ps.time = now + n;
+            queue = queue == null ? ps : link(ps, queue);
+            L.unlock();
+            return ps;
+        }
+    }
+
+    AtomicReferenceFieldUpdater<Wheel, Timer> WHEEL_INBOX =
+            AtomicReferenceFieldUpdater.newUpdater(Wheel.class, Timer.class, "inbox");
+
+    AtomicIntegerFieldUpdater<Timer> TIMER_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timer.class, "state");
+
+    final class Wheel extends Thread implements Scheduler {
+        final long tick;
+        final long origin;
+        final Timer[] buckets;
+
+        long ticks;
+        int count;
+
+        volatile Timer inbox;
+        volatile boolean idle;
+
+        Wheel(String name, long tick, int size) {
+            super(name);
+            this.tick = tick;
+            this.origin = System.nanoTime();
+            this.buckets = new Timer[size];
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            for(;;) try {
+                if (count == 0 && inbox == null) {
+                    idle = true;
+                    if (inbox == null) LockSupport.park(this);
+                    idle = false;
+                    if (count == 0) ticks = Math.max(ticks, (System.nanoTime() - origin) / tick);
+                    continue;
+                }
+                long d = origin + ticks * tick - System.nanoTime();
+                if (0 < d) {
+                    LockSupport.parkNanos(this, d);
+                    continue;
+                }
+                for (Timer t = reverse(WHEEL_INBOX.getAndSet(this, null)); t != null;) {
+                    Timer next = t.next;
+                    t.next = null;
+                    if (t.state == PENDING) insert(this, t);
+                    t = next;
+                }
+                Timer expired = expire(this, buckets[(int) (ticks & (buckets.length - 1))]);
+                ticks++;
+                while (expired != null) {
+                    Timer next = expired.next;
+                    expired.next = null;
+                    IFn s = expired.success;
+                    Object x = expired.payload;
+                    expired.success = null;
+                    expired.payload = null;
+                    try {
+                        s.invoke(x);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                    }
+                    expired = next;
+                }
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public IFn schedule(long n, Object x, IFn s, IFn f) {
+            Timer t = new Timer();
+            t.payload = x;
+            t.success = s;
+            t.failure = f;
+            t.time = (System.nanoTime() - origin + n + tick - 1) / tick;
+            for(;;) {
+                Timer i = inbox;
+                t.next = i;
+                if (WHEEL_INBOX.compareAndSet(this, i, t)) break;
+            }
+            if (idle) LockSupport.unpark(this);
+            return t;
+        }
+    }
+
+    final class Timer extends AFn {
+        static {
+            Util.printDefault(Timer.class);
+        }
+
+        volatile int state;
+
+        Object payload;
+        IFn success;
+        IFn failure;
+        long time;
+        long rounds;
+        Timer prev;
+        Timer next;
+
+        @Override
+        public Object invoke() {
+            if (TIMER_STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                IFn f = failure;
+                failure = null;
+                success = null;
+                payload = null;
+                f.invoke(C);
+            }
+            return null;
+        }
+    }
+
+    static Process reverse(Process ps) {
+        Process r = null;
+        while (ps != null) {
+            Process sibling = ps.sibling;
+            ps.sibling = r;
+            r = ps;
+            ps = sibling;
+        }
+        return r;
+    }
+
+    static Timer reverse(Timer t) {
+        Timer r = null;
+        while (t != null) {
+            Timer next = t.next;
+            t.next = r;
+            r = t;
+            t = next;
+        }
+        return r;
+    }
+
+    static void insert(Wheel w, Timer t) {
+        long target = Math.max(w.ticks, t.time);
+        int i = (int) (target & (w.buckets.length - 1));
+        t.rounds = (target - w.ticks) / w.buckets.length;
+        Timer head = w.buckets[i];
+        if (head == null) {
+            t.prev = t;
+            w.buckets[i] = t;
+        } else {
+            Timer last = head.prev;
+            last.next = t;
+            t.prev = last;
+            head.prev = t;
+        }
+        w.count++;
+    }
+
+    static void unlink(Wheel w, int i, Timer t) {
+        Timer head = w.buckets[i];
+        Timer next = t.next;
+        if (t == head) {
+            if (next != null) next.prev = t.prev;
+            w.buckets[i] = next;
+        } else {
+            t.prev.next = next;
+            (next == null ? head : next).prev = t.prev;
+        }
+        t.prev = null;
+        t.next = null;
+        w.count--;
+    }
+
+    static Timer expire(Wheel w, Timer t) {
+        int i = (int) (w.ticks & (w.buckets.length - 1));
+        Timer head = null;
+        Timer tail = null;
+        while (t != null) {
+            Timer next = t.next;
+            if (t.state == CANCELLED) unlink(w, i, t);
+            else if (0 < t.rounds) t.rounds--;
+            else if (TIMER_STATE.compareAndSet(t, PENDING, EXPIRED)) {
+                unlink(w, i, t);
+                if (tail == null) head = t;
+                else tail.next = t;
+                tail = t;
+            } else unlink(w, i, t);
+            t = next;
+        }
+        return head;
+    }
+
+    static void fire(Process ps) {
+        if (PROCESS_STATE.compareAndSet(ps, PENDING, EXPIRED)) {
+            IFn s = ps.success;
+            Object x = ps.payload;
+            ps.payload = null;
+            ps.success = null;
+            ps.failure = null;
+            try {
+                s.invoke(x);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
         }
     }
 
     static Process link(Process x, Process y) {
-        if (x.time < y.time) {
+        if (x.time - y.time < 0) {
             y.sibling = x.child;
             x.child = y;
             return x;
@@ -107,17 +440,42 @@ public interface Sleep {
         return prev == null ? heap : heap == null ? prev : link(heap, prev);
     }
 
-    static Process run(long d, Object x, IFn s, IFn f) {
-        Process ps = new Process();
-        ps.payload = x;
-        ps.success = s;
-        ps.failure = f;
-        ps.time = System.currentTimeMillis() + d;
-        S.L.lock();
-        Process head = S.queue;
-        S.queue = head == null ? ps : link(head, ps);
-        S.C.signal();
-        S.L.unlock();
-        return ps;
-    }
-}
\ No newline at end of file
+    static Scheduler scheduler(String name, int shards) {
+        if (1 < shards) {
+            Scheduler[] ss = new Scheduler[shards];
+            for (int i = 0; i < shards; i++) ss[i] = scheduler(name, "missionary scheduler-" + i);
+            return new Shards(ss);
+        } else return scheduler(name, "missionary scheduler");
+    }
+
+    static Scheduler scheduler(String name, String thread) {
+        switch (name) {
+            case "heap": return new Heap(thread, Long.getLong("missionary.sleep.coalesce", 0));
+            case "wheel":
+                long tick = Long.getLong("missionary.sleep.wheel.tick", 0);
+                return new Wheel(thread, 0 < tick ? tick : TimeUnit.MILLISECONDS.toNanos(1),
+                        Integer.highestOneBit(Math.max(1, Integer.getInteger("missionary.sleep.wheel.size", 512))));
+            default: throw new IllegalArgumentException("Unknown sleep scheduler : " + name);
+        }
+    }
+
+    static long nanos(Object d) {
+        long n;
+        if (d instanceof Duration) try {
+            n = ((Duration) d).toNanos();
+        } catch (ArithmeticException e) {
+            n = ((Duration) d).isNegative() ? 0 : MAX;
+        } else if (d instanceof Long || d instanceof Integer || d instanceof Short || d instanceof Byte)
+            n = TimeUnit.MILLISECONDS.toNanos(((Number) d).longValue());
+        else n = (long) (((Number) d).doubleValue() * 1e6);
+        return Math.min(Math.max(0, n), MAX);
+    }
+
+    static Scheduler install(Scheduler s) {
+        return CURRENT.getAndSet(s == null ? S : s);
+    }
+
+    static IFn run(Object d, Object x, IFn s, IFn f) {
+        return CURRENT.get().schedule(nanos(d), x, s, f);
+    }
+}
@@ -5,31 +5,59 @@ import clojure.lang.IFn;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public interface Thunk {
 
     final class Cpu extends Thread {
         static final AtomicInteger ID = new AtomicInteger();
-        static final Executor POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
-            Thread t = new Thread(r, "missionary cpu-" + ID.getAndIncrement());
+        static final ForkJoinPool POOL = new ForkJoinPool(
+                Math.min(Math.max(1, Integer.getInteger("missionary.cpu.parallelism",
+                        Runtime.getRuntime().availableProcessors())), 0x7fff), p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("missionary cpu-" + ID.getAndIncrement());
             t.setDaemon(true);
             return t;
-        });
+        }, null, true);
     }
 
     final class Blk extends Thread {
         static final AtomicInteger ID = new AtomicInteger();
-        static final Executor POOL = Executors.newCachedThreadPool(r -> {
-            Thread t = new Thread(r, "missionary blk-" + ID.getAndIncrement());
-            t.setDaemon(true);
-            return t;
-        });
+        static final Executor POOL = "virtual".equals(System.getProperty("missionary.blk")) ? virtual() : platform();
+
+        static Executor platform() {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "missionary blk-" + ID.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        static Executor virtual() {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object b = Thread.class.getMethod("ofVirtual").invoke(null);
+                b = builder.getMethod("name", String.class, long.class).invoke(b, "missionary blk-", 0L);
+                ThreadFactory f = (ThreadFactory) builder.getMethod("factory").invoke(b);
+                return (Executor) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, f);
+            } catch (ReflectiveOperationException e) {
+                return platform();
+            }
+        }
     }
 
     Executor cpu = Cpu.POOL;
     Executor blk = Blk.POOL;
 
+    AtomicReferenceFieldUpdater<Process, Object> THREAD =
+            AtomicReferenceFieldUpdater.newUpdater(Process.class, Object.class, "thread");
+
+    Object INTERRUPTING = new Object();
+
     final class Process extends AFn {
         static {
             Util.printDefault(Process.class);
@@ -39,7 +67,7 @@ public interface Thunk {
         final IFn success;
         final IFn failure;
 
-        Object thread;
+        volatile Object thread;
 
         public Process(Executor e, IFn t, IFn s, IFn f) {
             thunk = t;
@@ -50,11 +78,8 @@ public interface Thunk {
 
         @Override
         public void run() {
-            synchronized (this) {
-                Thread t = Thread.currentThread();
-                if (thread == this) t.interrupt();
-                else thread = t;
-            }
+            Thread t = Thread.currentThread();
+            if (!THREAD.compareAndSet(this, null, t)) t.interrupt();
             Object x;
             IFn cont;
             try {
@@ -64,20 +89,24 @@ public interface Thunk {
                 x = e;
                 cont = failure;
             }
-            synchronized (this) {
-                if (thread == this) Thread.interrupted();
-                else thread = this;
+            if (!THREAD.compareAndSet(this, t, this)) {
+                while (thread == INTERRUPTING) Thread.yield();
+                Thread.interrupted();
             }
             cont.invoke(x);
         }
 
         @Override
         public Object invoke() {
-            synchronized (this) {
+            for(;;) {
                 Object t = thread;
-                if (t != this) {
+                if (t == this || t == INTERRUPTING) break;
+                if (t == null) {
+                    if (THREAD.compareAndSet(this, null, this)) break;
+                } else if (THREAD.compareAndSet(this, t, INTERRUPTING)) {
+                    ((Thread) t).interrupt();
                     thread = this;
-                    if (t != null) ((Thread) t).interrupt();
+                    break;
                 }
             }
             return null;
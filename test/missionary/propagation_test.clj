@@ -0,0 +1,90 @@
+(ns missionary.propagation-test
+  (:require [missionary.core :as m]
+            [clojure.test :as t])
+  (:import (missionary.impl Propagator)
+           (java.util.concurrent ForkJoinPool ForkJoinWorkerThread)))
+
+(defmacro with-pool [pool & body]
+  `(let [pool# ~pool
+         prev# (Propagator/install pool#)]
+     (try ~@body
+          (finally
+            (Propagator/install prev#)
+            (.shutdown ^ForkJoinPool pool#)))))
+
+(defn collect [flow]
+  (let [seen (atom [])]
+    [seen ((m/reduce (fn [_ x] (swap! seen conj x)) nil flow)
+           (constantly nil) (fn [e] (swap! seen conj e)))]))
+
+(t/deftest parallel-diamond
+  (with-pool (ForkJoinPool. 4)
+    (let [!x (atom 0)
+          <x (m/signal (m/watch !x))
+          <a (m/signal (m/latest inc <x))
+          <b (m/signal (m/latest (partial * 2) <x))
+          <c (m/signal (m/latest + <a <b))
+          [seen ps] (collect <c)]
+      (dotimes [_ 20] (swap! !x inc))
+      (ps)
+      (t/is (= (map #(inc (* 3 %)) (range 21)) @seen)))))
+
+(t/deftest parallel-wide
+  (with-pool (ForkJoinPool. 4)
+    (let [!x (atom 0)
+          <x (m/signal (m/watch !x))
+          sinks (mapv (fn [i] (collect (m/signal (m/latest (partial + i) <x)))) (range 32))]
+      (dotimes [_ 5] (swap! !x inc))
+      (run! (fn [[_ ps]] (ps)) sinks)
+      (t/is (= (map (fn [i] (map (partial + i) (range 6))) (range 32))
+              (map (comp deref first) sinks))))))
+
+(t/deftest parallel-batch
+  (with-pool (ForkJoinPool. 4)
+    (let [!x (atom 0)
+          !log (atom [])
+          <x (m/signal (m/watch !x))
+          cancels (mapv (fn [i]
+                          (let [<y (m/signal
+                                     (m/latest (fn [x]
+                                                 (Thread/sleep 1)
+                                                 (swap! !log conj [:refresh (Thread/currentThread)])
+                                                 (+ i x)) <x))]
+                            ((m/reduce (fn [_ y] (swap! !log conj [:seen y])) nil <y)
+                             (constantly nil) (constantly nil))))
+                    (range 8))]
+      (reset! !log [])
+      (swap! !x inc)
+      (let [[refreshes seen] (split-at 8 @!log)]
+        (run! #(%) cancels)
+        ;; refreshes run in the pool, subscribers are notified once the batch is joined
+        (t/is (every? (comp #{:refresh} first) refreshes))
+        (t/is (some (comp (partial instance? ForkJoinWorkerThread) second) refreshes))
+        (t/is (= (map (fn [i] [:seen (inc i)]) (range 8)) seen))))))
+
+(t/deftest parallel-failure
+  (with-pool (ForkJoinPool. 4)
+    (let [err (ex-info "boom" {})
+          !x (atom 0)
+          <x (m/signal (m/watch !x))
+          sinks (mapv (fn [i]
+                        (collect (m/signal (m/latest (fn [x] (if (and (== i 3) (== x 1)) (throw err) (+ i x))) <x))))
+                  (range 8))]
+      (swap! !x inc)
+      (run! (fn [[_ ps]] (ps)) sinks)
+      (t/is (= (map (fn [i] (if (== i 3) [3 err] [i (inc i)])) (range 8))
+              (map (comp deref first) sinks))))))
+
+(t/deftest parallel-dynamic-dependency
+  (with-pool (ForkJoinPool. 4)
+    (let [!x (atom 0)
+          <x (m/signal (m/watch !x))
+          <a (m/signal (m/latest inc <x))
+          <s (m/signal (m/cp (if (odd? (m/?< <x)) (m/?< <a) :even)))
+          [seen-a ps-a] (collect <a)
+          [seen-s ps-s] (collect <s)]
+      (dotimes [_ 6] (swap! !x inc))
+      (ps-s)
+      (ps-a)
+      (t/is (= (map inc (range 7)) @seen-a))
+      (t/is (= (map #(if (odd? %) (inc %) :even) (range 7)) @seen-s)))))
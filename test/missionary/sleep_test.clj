@@ -0,0 +1,89 @@
+(ns missionary.sleep-test
+  (:require [missionary.core :as m]
+            [clojure.test :as t])
+  (:import (missionary Cancelled)
+           (missionary.impl Sleep Sleep$Virtual)
+           (java.util.concurrent TimeUnit)))
+
+(defn millis [n] (.toNanos TimeUnit/MILLISECONDS n))
+
+(defmacro with-clock [clock & body]
+  `(let [prev# (Sleep/install ~clock)]
+     (try ~@body (finally (Sleep/install prev#)))))
+
+(t/deftest virtual-success
+  (let [clock (Sleep$Virtual.)
+        result (atom nil)]
+    (with-clock clock
+      ((m/reduce conj (m/ap (let [n (m/?> ##Inf (m/seed [30 10 20]))] (m/? (m/sleep n n)))))
+       (partial reset! result) (partial reset! result))
+      (t/is (nil? @result))
+      (.advance clock (millis 15))
+      (t/is (nil? @result))
+      (t/is (= (millis 15) (.now clock)))
+      (.advance clock (millis 15))
+      (t/is (= [10 20 30] @result))
+      (t/is (= (millis 30) (.now clock))))))
+
+(t/deftest virtual-cancel
+  (let [clock (Sleep$Virtual.)
+        result (atom nil)]
+    (with-clock clock
+      (let [ps ((m/sleep 10 :done) (partial reset! result) (partial reset! result))]
+        (.advance clock (millis 5))
+        (ps)
+        (t/is (instance? Cancelled @result))
+        (reset! result nil)
+        (.advance clock (millis 10))
+        (t/is (nil? @result))))))
+
+(t/deftest virtual-timeout
+  (let [clock (Sleep$Virtual.)
+        result (atom nil)]
+    (with-clock clock
+      ((m/timeout (m/sleep 20 :a) 15 :b)
+       (partial reset! result) (partial reset! result))
+      (.advance clock (millis 100))
+      (t/is (= :b @result)))))
+
+(defn check-order [scheduler]
+  (with-clock scheduler
+    (t/is (= [5 10 40]
+            (m/? (m/reduce conj (m/ap (let [n (m/?> ##Inf (m/seed [40 5 10]))] (m/? (m/sleep n n))))))))))
+
+(defn check-cancel [scheduler]
+  (with-clock scheduler
+    (let [result (atom [])
+          ps ((m/sleep 20 :done) (partial swap! result conj) (partial swap! result conj))]
+      (ps)
+      (Thread/sleep 50)
+      (t/is (= 1 (count @result)))
+      (t/is (instance? Cancelled (first @result))))))
+
+(t/deftest wheel-scheduler
+  (let [scheduler (Sleep/scheduler "wheel" (int 1))]
+    (check-order scheduler)
+    (check-cancel scheduler)))
+
+(t/deftest sharded-scheduler
+  (let [scheduler (Sleep/scheduler "heap" (int 2))]
+    (check-order scheduler)
+    (check-cancel scheduler)))
+
+(t/deftest coalescing-scheduler
+  (let [scheduler (do (System/setProperty "missionary.sleep.coalesce" (str (millis 20)))
+                      (try (Sleep/scheduler "heap" (int 1))
+                           (finally (System/clearProperty "missionary.sleep.coalesce"))))]
+    (with-clock scheduler
+      (t/is (= [5 60]
+              (m/? (m/reduce conj (m/ap (let [n (m/?> ##Inf (m/seed [60 5]))] (m/? (m/sleep n n))))))))
+      ;; cancelling a timer doesn't drop the others expiring in the same bucket
+      (let [result (atom [])
+            a ((m/sleep 5 :a) (partial swap! result conj) (partial swap! result conj))]
+        ((m/sleep 5 :b) (partial swap! result conj) (partial swap! result conj))
+        (a)
+        (Thread/sleep 50)
+        (t/is (= 2 (count @result)))
+        (t/is (instance? Cancelled (first @result)))
+        (t/is (= :b (second @result)))))
+    (check-cancel scheduler)))